@@ -2,11 +2,15 @@ package org.javacs;
 
 import java.nio.file.Path;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.function.ToLongBiFunction;
+import java.util.logging.Logger;
 
-/** Cache maps a file + an arbitrary key to a value. When the file is modified, the mapping expires. */
+/**
+ * Cache maps a file + an arbitrary key to a value. When the file is modified, the mapping expires. The cache holds at
+ * most maxWeight worth of values, and evicts the least-recently-used mappings to stay under that limit.
+ */
 class Cache<K, V> {
     private static class Key<K> {
         final Path file;
@@ -32,43 +36,140 @@ class Cache<K, V> {
 
     private class Value {
         final V value;
-        final Instant created = Instant.now();
+        final Instant created;
+        final long weight;
 
-        Value(V value) {
+        Value(V value, Instant created, long weight) {
             this.value = value;
+            this.created = created;
+            this.weight = weight;
         }
     }
 
-    private final Map<Key, Value> map = new HashMap<>();
+    /** Every cache that has been created, so they can all be purged when a file changes */
+    private static final Set<Cache<?, ?>> ALL = Collections.newSetFromMap(new WeakHashMap<>());
 
-    boolean has(Path file, K k) {
-        return !needs(file, k);
+    private final String name;
+    private final long maxWeight;
+    private final ToLongBiFunction<K, V> weigher;
+
+    /** Mappings in least-recently-used order */
+    private final LinkedHashMap<Key<K>, Value> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** byFile[file] is every key that has been loaded for file, so they can be removed together */
+    private final Map<Path, Set<Key<K>>> byFile = new HashMap<>();
+
+    private long weight, hits, misses, evictions;
+
+    /** Create a cache that holds up to maxEntries mappings. */
+    Cache(String name, long maxEntries) {
+        this(name, maxEntries, (__, ___) -> 1);
     }
 
-    boolean needs(Path file, K k) {
-        // If key is not in map, it needs to be loaded
-        var key = new Key<K>(file, k);
-        if (!map.containsKey(key)) return true;
+    /** Create a cache that holds up to maxWeight of values, where each value weighs weigher(key, value). */
+    Cache(String name, long maxWeight, ToLongBiFunction<K, V> weigher) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        synchronized (ALL) {
+            ALL.add(this);
+        }
+    }
 
-        // If key was loaded before file was last modified, it needs to be reloaded
-        var value = map.get(key);
+    /** Remove all mappings for file from every cache. */
+    static void invalidate(Path file) {
+        List<Cache<?, ?>> caches;
+        synchronized (ALL) {
+            caches = new ArrayList<>(ALL);
+        }
+        for (var cache : caches) {
+            cache.remove(file);
+        }
+    }
+
+    /**
+     * The value of k for file, computing it with loader if it isn't cached or file has been modified since. loader runs
+     * outside the lock, so other threads can use the cache meanwhile, and its value is returned even if another thread
+     * evicts or invalidates it right away.
+     */
+    V get(Path file, K k, Supplier<V> loader) {
+        // Look up the modified time before locking this cache, because FileStore calls invalidate(_) while locked
         var modified = FileStore.modified(file);
-        // TODO remove all keys associated with file when file changes
-        return value.created.isBefore(modified);
+        synchronized (this) {
+            var value = map.get(new Key<K>(file, k));
+            if (value != null && !value.created.isBefore(modified)) {
+                hits++;
+                return value.value;
+            }
+            misses++;
+        }
+        // Remember when loading started, so if file changes while loader reads it, the value is already expired
+        var started = Instant.now();
+        var v = loader.get();
+        synchronized (this) {
+            put(file, k, v, started);
+        }
+        return v;
     }
 
-    void load(Path file, K k, V v) {
-        // TODO limit total size of cache
+    private void put(Path file, K k, V v, Instant created) {
         var key = new Key<K>(file, k);
-        var value = new Value(v);
-        map.put(key, value);
+        var value = new Value(v, created, weigher.applyAsLong(k, v));
+        var previous = map.put(key, value);
+        if (previous != null) weight -= previous.weight;
+        weight += value.weight;
+        byFile.computeIfAbsent(file, __ -> new HashSet<>()).add(key);
+        evict();
     }
 
-    V get(Path file, K k) {
-        var key = new Key<K>(file, k);
-        if (!map.containsKey(key)) {
-            throw new IllegalArgumentException(k + " is not in map " + map);
+    private synchronized void remove(Path file) {
+        var keys = byFile.remove(file);
+        if (keys == null) return;
+        for (var key : keys) {
+            var value = map.remove(key);
+            if (value != null) weight -= value.weight;
         }
-        return map.get(key).value;
     }
+
+    /** Evict the least-recently-used mappings until the cache fits in maxWeight, but always keep the newest one. */
+    private void evict() {
+        var it = map.entrySet().iterator();
+        while (weight > maxWeight && map.size() > 1) {
+            var next = it.next();
+            it.remove();
+            weight -= next.getValue().weight;
+            var keys = byFile.get(next.getKey().file);
+            keys.remove(next.getKey());
+            if (keys.isEmpty()) byFile.remove(next.getKey().file);
+            evictions++;
+            if (evictions % 10_000 == 0) {
+                LOG.info(String.format("...cache %s has evicted %,d entries (%s)", name, evictions, stats()));
+            }
+        }
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+
+    /** A summary of how well this cache is working, for logging */
+    synchronized String stats() {
+        return String.format(
+                "%,d entries weighing %,d / %,d, %,d hits, %,d misses, %,d evictions",
+                map.size(), weight, maxWeight, hits, misses, evictions);
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
 }
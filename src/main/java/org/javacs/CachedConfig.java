@@ -0,0 +1,80 @@
+package org.javacs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * CachedConfig is a class path and doc path that InferConfig found, saved under the workspace root along with the
+ * InferConfig.buildHash() of the build files they came from, so a restart doesn't have to run mvn or bazel again.
+ */
+class CachedConfig {
+    /** Bump this whenever the format of the saved config changes, so old configs are ignored instead of misread. */
+    private static final int VERSION = 1;
+
+    private static final String CONFIG_FILE = ".javacs/config.idx";
+
+    final String buildHash;
+    final Set<Path> classPath, docPath;
+
+    CachedConfig(String buildHash, Set<Path> classPath, Set<Path> docPath) {
+        this.buildHash = buildHash;
+        this.classPath = classPath;
+        this.docPath = docPath;
+    }
+
+    /** The config that was last saved under workspaceRoot, if there is one. */
+    static Optional<CachedConfig> load(Path workspaceRoot) {
+        var configFile = workspaceRoot.resolve(CONFIG_FILE);
+        if (!Files.exists(configFile)) return Optional.empty();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(configFile)))) {
+            if (in.readInt() != VERSION) {
+                LOG.info("Ignoring " + configFile + " because it was written by a different version");
+                return Optional.empty();
+            }
+            var buildHash = in.readUTF();
+            var classPath = readPaths(in);
+            var docPath = readPaths(in);
+            return Optional.of(new CachedConfig(buildHash, classPath, docPath));
+        } catch (IOException e) {
+            LOG.warning("Failed to read " + configFile + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static Set<Path> readPaths(DataInputStream in) throws IOException {
+        var count = in.readInt();
+        var paths = new HashSet<Path>(count);
+        for (var i = 0; i < count; i++) {
+            paths.add(Paths.get(in.readUTF()));
+        }
+        return paths;
+    }
+
+    void save(Path workspaceRoot) {
+        var configFile = workspaceRoot.resolve(CONFIG_FILE);
+        try {
+            Files.createDirectories(configFile.getParent());
+            var temp = Files.createTempFile(configFile.getParent(), "config", ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(VERSION);
+                out.writeUTF(buildHash);
+                writePaths(out, classPath);
+                writePaths(out, docPath);
+            }
+            Files.move(temp, configFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warning("Failed to write " + configFile + ": " + e.getMessage());
+        }
+    }
+
+    private static void writePaths(DataOutputStream out, Set<Path> paths) throws IOException {
+        out.writeInt(paths.size());
+        for (var p : paths) {
+            out.writeUTF(p.toString());
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
@@ -0,0 +1,222 @@
+package org.javacs;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * ClassNameIndex answers prefix and camel-hump queries over a set of qualified class names, using binary searches over
+ * sorted arrays that are built once, so a query costs about as much as the results it returns. An index can be the
+ * union of several parts, so the classes of the classpath can be indexed once, while the classes of the workspace are
+ * re-indexed as files come and go.
+ */
+public class ClassNameIndex {
+    public static final ClassNameIndex EMPTY = of(List.of());
+
+    private static class Part {
+        /** Qualified names, sorted */
+        final String[] names;
+        /** Simple names, sorted, and the qualified name of each one */
+        final String[] simple, qualifiedBySimple;
+        /** The first letter of each hump of the simple names, like AL for ArrayList, sorted */
+        final String[] initials, qualifiedByInitials;
+
+        Part(Collection<String> classNames) {
+            names = classNames.toArray(String[]::new);
+            Arrays.sort(names);
+            var n = names.length;
+            simple = new String[n];
+            qualifiedBySimple = new String[n];
+            sortBy(ClassNameIndex::simpleName, simple, qualifiedBySimple);
+            initials = new String[n];
+            qualifiedByInitials = new String[n];
+            sortBy(name -> initials(simpleName(name)), initials, qualifiedByInitials);
+        }
+
+        private void sortBy(Function<String, String> key, String[] keys, String[] qualified) {
+            var order = new Integer[names.length];
+            var keyOf = new String[names.length];
+            for (var i = 0; i < names.length; i++) {
+                order[i] = i;
+                keyOf[i] = key.apply(names[i]);
+            }
+            // The sort is stable and names is already sorted, so ties are in order of qualified name
+            Arrays.sort(order, Comparator.comparing((Integer i) -> keyOf[i]));
+            for (var i = 0; i < names.length; i++) {
+                keys[i] = keyOf[order[i]];
+                qualified[i] = names[order[i]];
+            }
+        }
+    }
+
+    private final List<Part> parts;
+
+    private ClassNameIndex(List<Part> parts) {
+        this.parts = parts;
+    }
+
+    public static ClassNameIndex of(Collection<String> classNames) {
+        return new ClassNameIndex(List.of(new Part(classNames)));
+    }
+
+    /** An index of all the classes in indexes. A class in more than one of them is only returned once. */
+    public static ClassNameIndex union(ClassNameIndex... indexes) {
+        var parts = new ArrayList<Part>();
+        for (var i : indexes) {
+            parts.addAll(i.parts);
+        }
+        return new ClassNameIndex(parts);
+    }
+
+    public int size() {
+        var size = 0;
+        for (var p : parts) {
+            size += p.names.length;
+        }
+        return size;
+    }
+
+    public boolean contains(String className) {
+        for (var p : parts) {
+            if (Arrays.binarySearch(p.names, className) >= 0) return true;
+        }
+        return false;
+    }
+
+    /** Classes whose simple name starts with prefix, case-sensitive, in order of simple name. */
+    public List<String> withSimplePrefix(String prefix, int limit) {
+        var found = new ArrayList<String>();
+        // Each part contributes up to limit classes, so the first limit of them all are among them
+        for (var p : parts) {
+            var start = lowerBound(p.simple, prefix);
+            var end = (int) Math.min(p.simple.length, (long) start + limit);
+            for (var i = start; i < end; i++) {
+                if (!p.simple[i].startsWith(prefix)) break;
+                found.add(p.qualifiedBySimple[i]);
+            }
+        }
+        return merge(found, BY_SIMPLE_NAME, limit);
+    }
+
+    /** Classes whose simple name is exactly simpleName. */
+    public List<String> withSimpleName(String simpleName) {
+        var found = new ArrayList<String>();
+        for (var p : parts) {
+            for (var i = lowerBound(p.simple, simpleName); i < p.simple.length; i++) {
+                if (!p.simple[i].equals(simpleName)) break;
+                found.add(p.qualifiedBySimple[i]);
+            }
+        }
+        return merge(found, BY_SIMPLE_NAME, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Up to limit classes whose simple name starts with the humps of query, like AL or ArrLi for ArrayList, in order
+     * of simple name. Each hump of query is a prefix of the corresponding hump of the simple name. A query with only one hump
+     * matches nothing, because it is just a prefix; use withSimplePrefix for that.
+     */
+    public List<String> matchingCamelHumps(String query, int limit) {
+        var queryHumps = humps(query);
+        if (queryHumps.size() < 2) return List.of();
+        var queryInitials = initials(query);
+        var found = new ArrayList<String>();
+        for (var p : parts) {
+            var count = 0;
+            for (var i = lowerBound(p.initials, queryInitials); i < p.initials.length && count < limit; i++) {
+                if (!p.initials[i].startsWith(queryInitials)) break;
+                if (matchesHumps(simpleName(p.qualifiedByInitials[i]), queryHumps)) {
+                    found.add(p.qualifiedByInitials[i]);
+                    count++;
+                }
+            }
+        }
+        return merge(found, BY_SIMPLE_NAME, limit);
+    }
+
+    /**
+     * The distinct packages and classes that can follow path in an import, like java.util and java.util.List for
+     * java.u, as qualified names in sorted order. Each package is returned once, no matter how many classes it has.
+     */
+    public List<String> nextSegments(String path, int limit) {
+        var found = new ArrayList<String>();
+        for (var p : parts) {
+            var count = 0;
+            var i = lowerBound(p.names, path);
+            while (i < p.names.length && count < limit) {
+                var name = p.names[i];
+                if (!name.startsWith(path)) break;
+                var end = name.indexOf('.', path.length());
+                if (end == -1) {
+                    found.add(name);
+                    i++;
+                } else {
+                    var segment = name.substring(0, end);
+                    found.add(segment);
+                    // Skip the rest of segment, which sorts before segment + '/' because '.' comes right before '/'
+                    i = lowerBound(p.names, segment + "/");
+                }
+                count++;
+            }
+        }
+        return merge(found, Comparator.naturalOrder(), limit);
+    }
+
+    private static final Comparator<String> BY_SIMPLE_NAME =
+            Comparator.comparing(ClassNameIndex::simpleName).thenComparing(Comparator.naturalOrder());
+
+    /** Sort the results of each part together, remove duplicates, and keep the first limit. */
+    private static List<String> merge(List<String> found, Comparator<String> order, int limit) {
+        var sorted = new TreeSet<String>(order);
+        sorted.addAll(found);
+        var merged = new ArrayList<String>(Math.min(limit, sorted.size()));
+        for (var name : sorted) {
+            if (merged.size() == limit) break;
+            merged.add(name);
+        }
+        return merged;
+    }
+
+    /** The index of the first element of sorted that is >= key */
+    private static int lowerBound(String[] sorted, String key) {
+        var found = Arrays.binarySearch(sorted, key);
+        if (found < 0) return -found - 1;
+        // binarySearch finds any match, so step back to the first
+        while (found > 0 && sorted[found - 1].equals(key)) found--;
+        return found;
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    /** Split name before each uppercase letter, so ArrayList becomes Array, List */
+    private static List<String> humps(String name) {
+        var humps = new ArrayList<String>();
+        var start = 0;
+        for (var i = 1; i <= name.length(); i++) {
+            if (i == name.length() || Character.isUpperCase(name.charAt(i))) {
+                humps.add(name.substring(start, i));
+                start = i;
+            }
+        }
+        return humps;
+    }
+
+    private static String initials(String name) {
+        var initials = new StringBuilder();
+        for (var i = 0; i < name.length(); i++) {
+            if (i == 0 || Character.isUpperCase(name.charAt(i))) {
+                initials.append(name.charAt(i));
+            }
+        }
+        return initials.toString();
+    }
+
+    private static boolean matchesHumps(String simpleName, List<String> queryHumps) {
+        var nameHumps = humps(simpleName);
+        if (nameHumps.size() < queryHumps.size()) return false;
+        for (var i = 0; i < queryHumps.size(); i++) {
+            if (!nameHumps.get(i).startsWith(queryHumps.get(i))) return false;
+        }
+        return true;
+    }
+}
@@ -10,14 +10,17 @@ import java.util.*;
 import java.util.stream.Collectors;
 import javax.lang.model.util.*;
 import javax.tools.*;
+import org.javacs.lsp.CancelToken;
 
 class CompileBatch implements AutoCloseable {
     static final int MAX_COMPLETION_ITEMS = 50;
 
     final JavaCompilerService parent;
     final ReusableCompiler.Borrow borrow;
-    /** Indicates the task that requested the compilation is finished with it. */
-    boolean closed;
+    /** Diagnostics reported while compiling this batch */
+    final List<Diagnostic<? extends JavaFileObject>> diags = new ArrayList<>();
+    /** How many tasks this batch has been handed out as that haven't been closed yet */
+    private int open = 1;
 
     final JavacTask task;
     final Trees trees;
@@ -25,9 +28,14 @@ class CompileBatch implements AutoCloseable {
     final Types types;
     final List<CompilationUnitTree> roots;
 
-    CompileBatch(JavaCompilerService parent, Collection<? extends JavaFileObject> files) {
+    CompileBatch(
+            JavaCompilerService parent,
+            ReusableCompiler compiler,
+            Collection<? extends JavaFileObject> files,
+            CancelToken cancel) {
         this.parent = parent;
-        this.borrow = batchTask(parent, files);
+        this.borrow = batchTask(parent, compiler, diags, files);
+        borrow.task.addTaskListener(new CheckCancelled(cancel));
         this.task = borrow.task;
         this.trees = Trees.instance(borrow.task);
         this.elements = borrow.task.getElements();
@@ -42,7 +50,32 @@ class CompileBatch implements AutoCloseable {
             // You can get at `Element` values using `Trees`
             borrow.task.analyze();
         } catch (IOException e) {
+            borrow.close();
             throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            borrow.close();
+            // javac wraps the exception thrown by CheckCancelled, so unwrap it
+            cancel.check();
+            throw e;
+        }
+    }
+
+    /** CheckCancelled aborts the compilation between phases, once nobody is waiting for the result. */
+    private static class CheckCancelled implements TaskListener {
+        final CancelToken cancel;
+
+        CheckCancelled(CancelToken cancel) {
+            this.cancel = cancel;
+        }
+
+        @Override
+        public void started(TaskEvent e) {
+            cancel.check();
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            cancel.check();
         }
     }
 
@@ -53,7 +86,7 @@ class CompileBatch implements AutoCloseable {
     Set<Path> needsAdditionalSources() {
         // Check for "class not found errors" that refer to package private classes
         var addFiles = new HashSet<Path>();
-        for (var err : parent.diags) {
+        for (var err : diags) {
             if (!err.getCode().equals("compiler.err.cant.resolve.location")) continue;
             if (!isValidFileRange(err)) continue;
             var className = errorText(err);
@@ -93,16 +126,39 @@ class CompileBatch implements AutoCloseable {
         return FILE_NOT_FOUND;
     }
 
+    /** Hand out this batch again, to a request that found it in CompilePool */
+    void reopen() {
+        open++;
+    }
+
+    /** Whether a task that was handed this batch is still using it */
+    boolean isOpen() {
+        return open > 0;
+    }
+
     @Override
     public void close() {
-        closed = true;
+        if (open > 0) open--;
+    }
+
+    /** The total number of characters in all the compiled sources */
+    long sourceLength() {
+        var positions = trees.getSourcePositions();
+        var length = 0L;
+        for (var root : roots) {
+            length += Math.max(0, positions.getEndPosition(root, root));
+        }
+        return length;
     }
 
     private static ReusableCompiler.Borrow batchTask(
-            JavaCompilerService parent, Collection<? extends JavaFileObject> sources) {
-        parent.diags.clear();
+            JavaCompilerService parent,
+            ReusableCompiler compiler,
+            List<Diagnostic<? extends JavaFileObject>> diags,
+            Collection<? extends JavaFileObject> sources) {
         var options = options(parent.classPath, parent.addExports);
-        return parent.compiler.getTask(parent.fileManager, parent.diags::add, options, List.of(), sources);
+        parent.fileManager.setRoots(sources);
+        return compiler.getTask(parent.fileManager, diags::add, options, List.of(), sources);
     }
 
     /** Combine source path or class path entries using the system separator, for example ':' in unix */
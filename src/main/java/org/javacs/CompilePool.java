@@ -0,0 +1,169 @@
+package org.javacs;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.logging.Logger;
+import javax.tools.JavaFileObject;
+import org.javacs.completion.MemberCache;
+
+/**
+ * CompilePool keeps the most recently used compilations, keyed by the set of source files they were asked to compile,
+ * so alternating between requests on different files doesn't recompile both every time. Each compilation holds on to
+ * its own javac context, so the pool is limited by an estimate of how much memory those contexts use. When a
+ * compilation is evicted, its javac context is kept warm and reused for the next compilation.
+ */
+class CompilePool {
+    /** Rough cost of a javac context that has loaded the JDK and the class path, before it compiles any sources. */
+    static final long CONTEXT_BYTES = 32L * 1024 * 1024;
+
+    /** Rough cost of the trees, symbols and types javac keeps per character of source it compiles. */
+    static final long BYTES_PER_CHAR = 100;
+
+    private static class Entry {
+        final CompileBatch batch;
+        final ReusableCompiler compiler;
+        final Map<JavaFileObject, Long> modified = new HashMap<>();
+        final long weight;
+
+        Entry(CompileBatch batch, ReusableCompiler compiler, Collection<? extends JavaFileObject> sources) {
+            this.batch = batch;
+            this.compiler = compiler;
+            for (var f : sources) {
+                modified.put(f, f.getLastModified());
+            }
+            this.weight = CONTEXT_BYTES + BYTES_PER_CHAR * batch.sourceLength();
+        }
+
+        /** Whether sources, which are equal to the sources of this compilation, haven't changed since it happened */
+        boolean fresh(Collection<? extends JavaFileObject> sources) {
+            for (var f : sources) {
+                if (f.getLastModified() != modified.get(f)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final long budget;
+    /** Compilations in least-recently-used order */
+    private final LinkedHashMap<Set<JavaFileObject>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Compilers whose batch has been evicted, ready to be reused */
+    private final Deque<ReusableCompiler> idle = new ArrayDeque<>();
+
+    /** Compilations that aren't kept in the pool, which give back their compiler when they are closed */
+    private final Map<CompileBatch, ReusableCompiler> unpooled = new HashMap<>();
+
+    private long used;
+
+    /** Create a pool that keeps compilations until their estimated size exceeds budget bytes. */
+    CompilePool(long budget) {
+        this.budget = budget;
+    }
+
+    /** The default budget, a quarter of the maximum heap size */
+    static long defaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Find a fresh compilation of exactly sources, or compile them using doCompile. The least-recently-used
+     * compilations are evicted until the pool fits in its budget, but the most recent one is always kept.
+     */
+    CompileBatch get(
+            Collection<? extends JavaFileObject> sources,
+            BiFunction<ReusableCompiler, Collection<? extends JavaFileObject>, CompileBatch> doCompile) {
+        return get(sources, doCompile, true);
+    }
+
+    /**
+     * Like get(sources, doCompile), but if keep is false the new compilation isn't added to the pool, so a one-off
+     * compilation of many files doesn't push out the compilations requests are using. The caller must pass it to
+     * closed(_) when it is done with it.
+     */
+    CompileBatch get(
+            Collection<? extends JavaFileObject> sources,
+            BiFunction<ReusableCompiler, Collection<? extends JavaFileObject>, CompileBatch> doCompile,
+            boolean keep) {
+        var key = Set.<JavaFileObject>copyOf(sources);
+        var existing = entries.get(key);
+        if (existing != null && existing.fresh(sources)) {
+            LOG.info("...using cached compile");
+            existing.batch.reopen();
+            return existing.batch;
+        }
+        if (existing != null) {
+            if (existing.batch.isOpen()) {
+                throw new RuntimeException("Compiler is still in-use!");
+            }
+            evict(key);
+        }
+        var compiler = idle.isEmpty() ? new ReusableCompiler() : idle.pop();
+        CompileBatch batch;
+        try {
+            batch = doCompile.apply(compiler, sources);
+        } catch (RuntimeException e) {
+            // If the failed compilation didn't return its task, the compiler can't be reused
+            if (!compiler.inUse()) idle.push(compiler);
+            throw e;
+        }
+        if (!keep) {
+            unpooled.put(batch, compiler);
+            return batch;
+        }
+        var entry = new Entry(batch, compiler, sources);
+        entries.put(key, entry);
+        used += entry.weight;
+        shrink();
+        return batch;
+    }
+
+    private void shrink() {
+        var it = entries.entrySet().iterator();
+        // Stop before the last entry, which is the compilation that was just requested
+        for (var remaining = entries.size(); used > budget && remaining > 1; remaining--) {
+            var next = it.next();
+            var entry = next.getValue();
+            // Batches that are still open are being used further up the stack
+            if (entry.batch.isOpen()) continue;
+            LOG.info(String.format("...evicting compilation of %d files", entry.modified.size()));
+            it.remove();
+            release(entry);
+        }
+    }
+
+    private void evict(Set<JavaFileObject> key) {
+        var entry = entries.remove(key);
+        if (entry != null) release(entry);
+    }
+
+    /** If batch wasn't kept in the pool, give back its compiler. */
+    void closed(CompileBatch batch) {
+        var compiler = unpooled.remove(batch);
+        if (compiler == null) return;
+        batch.borrow.close();
+        idle.push(compiler);
+        trimIdle();
+    }
+
+    private void release(Entry entry) {
+        entry.batch.borrow.close();
+        used -= entry.weight;
+        idle.push(entry.compiler);
+        trimIdle();
+    }
+
+    private void trimIdle() {
+        // Every idle compiler holds on to a javac context, so don't keep more of them than the budget allows
+        while (idle.size() > 1 && (idle.size() + entries.size()) * CONTEXT_BYTES > budget) {
+            idle.removeLast();
+            MemberCache.clear();
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
@@ -12,6 +12,7 @@ public class CompileTask implements AutoCloseable {
     public final List<CompilationUnitTree> roots;
     public final List<Diagnostic<? extends JavaFileObject>> diagnostics;
     private final Runnable close;
+    private boolean closed;
 
     public CompilationUnitTree root() {
         if (roots.size() != 1) {
@@ -51,6 +52,9 @@ public class CompileTask implements AutoCloseable {
 
     @Override
     public void close() {
+        // Callers sometimes close early and then again at the end of a try-with-resources block
+        if (closed) return;
+        closed = true;
         close.run();
     }
 }
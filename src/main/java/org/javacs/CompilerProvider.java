@@ -11,7 +11,7 @@ import javax.tools.JavaFileObject;
 public interface CompilerProvider {
     Set<String> imports();
 
-    List<String> publicTopLevelTypes();
+    ClassNameIndex publicTopLevelTypes();
 
     List<String> packagePrivateTopLevelTypes(String packageName);
 
@@ -19,6 +19,8 @@ public interface CompilerProvider {
 
     Optional<JavaFileObject> findAnywhere(String className);
 
+    Optional<DocIndex.Doc> findDocs(String className, String memberName, String[] erasedParameterTypes);
+
     Path findTypeDeclaration(String className);
 
     Path[] findTypeReferences(String className);
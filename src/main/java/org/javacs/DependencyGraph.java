@@ -0,0 +1,281 @@
+package org.javacs;
+
+import com.sun.source.tree.*;
+import com.sun.source.util.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.Pattern;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * DependencyGraph knows which workspace files can depend on which. Before a file has been compiled, a file can depend on
+ * every file in its package and every file declaring a type it imports, using the packages, imports and top-level types
+ * in SymbolIndex. Once a file has been compiled, and until it is modified, we know exactly which top-level types it
+ * uses, including the types that declare the members it uses.
+ */
+class DependencyGraph {
+    private static class Resolved {
+        /** The modified time of the file when it was compiled */
+        final long modified;
+        /** Qualified names of the top-level types the file uses */
+        final Set<String> uses;
+        /**
+         * Hash of everything other files can see in the file: non-private members, their types and constant values.
+         * Changes to method bodies and private members don't change it.
+         */
+        final int signature;
+
+        Resolved(long modified, Set<String> uses, int signature) {
+            this.modified = modified;
+            this.uses = uses;
+            this.signature = signature;
+        }
+    }
+
+    private static final Map<Path, Resolved> resolved = new HashMap<>();
+
+    /**
+     * Record what the files compiled by task use. Returns the files whose signature changed since they were last
+     * recorded. Files that haven't been recorded before don't count as changed.
+     */
+    static synchronized Set<Path> update(CompileTask task) {
+        var trees = Trees.instance(task.task);
+        var changed = new HashSet<Path>();
+        for (var root : task.roots) {
+            var file = Paths.get(root.getSourceFile().toUri());
+            var declared = new HashSet<String>();
+            var signature = new StringBuilder();
+            for (var t : root.getTypeDecls()) {
+                var type = trees.getElement(trees.getPath(root, t));
+                if (!(type instanceof TypeElement)) continue;
+                declared.add(((TypeElement) type).getQualifiedName().toString());
+                appendSignature((TypeElement) type, signature);
+            }
+            var used = new HashSet<String>();
+            new FindUsedTypes(trees).scan(root, used);
+            used.removeAll(declared);
+            var hash = signature.toString().hashCode();
+            var previous = resolved.put(file, new Resolved(root.getSourceFile().getLastModified(), used, hash));
+            if (previous != null && previous.signature != hash) {
+                changed.add(file);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Files that might refer to the type className by name: files in the same package, and files that import it. Files
+     * that have been compiled since they were last modified are only included if they actually use it.
+     */
+    static synchronized Set<Path> canSee(String className) {
+        var packageName = packageName(className);
+        var topLevel = topLevelName(className);
+        var found = SymbolIndex.importing(topLevel, packageName);
+        found.addAll(SymbolIndex.inPackage(packageName));
+        found.removeIf(file -> isResolved(file) && !resolved.get(file).uses.contains(topLevel));
+        return found;
+    }
+
+    /**
+     * Files that might use a type declared in file, including through members other types inherit from it, or through
+     * methods that return it. Files that have been compiled since they were last modified are only included if they
+     * actually use one of those types. Other files are included if they can reach file through any chain of imports
+     * and packages.
+     */
+    static synchronized Set<Path> dependents(Path file) {
+        var types = SymbolIndex.types(file);
+        var found = new HashSet<Path>();
+        if (types.isEmpty()) return found;
+        var unresolved = false;
+        for (var f : SymbolIndex.files()) {
+            if (f.equals(file)) continue;
+            if (!isResolved(f)) {
+                unresolved = true;
+            } else if (!Collections.disjoint(resolved.get(f).uses, types)) {
+                found.add(f);
+            }
+        }
+        if (!unresolved) return found;
+        for (var f : SymbolIndex.canSeeTransitively(file)) {
+            if (!isResolved(f)) {
+                found.add(f);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Files that javac will need in order to compile files, because they declare package-private classes that files
+     * mention, in source files with different names where javac won't look for them.
+     */
+    static synchronized Set<Path> additionalSources(Collection<Path> files) {
+        var found = new HashSet<Path>();
+        var packages = new HashMap<String, Map<String, Path>>();
+        for (var file : files) {
+            var packageName = SymbolIndex.packageName(file);
+            var hidden = packages.computeIfAbsent(packageName, DependencyGraph::hiddenTypes);
+            for (var simpleName : hidden.keySet()) {
+                var declaredIn = hidden.get(simpleName);
+                if (!files.contains(declaredIn) && SymbolIndex.mentions(file, simpleName)) {
+                    found.add(declaredIn);
+                }
+            }
+        }
+        return found;
+    }
+
+    /** Top-level types in packageName whose file has a different name, by simple name */
+    private static Map<String, Path> hiddenTypes(String packageName) {
+        var hidden = new HashMap<String, Path>();
+        for (var file : SymbolIndex.inPackage(packageName)) {
+            var fileName = file.getFileName().toString();
+            for (var type : SymbolIndex.types(file)) {
+                var simpleName = type.substring(type.lastIndexOf('.') + 1);
+                if (!fileName.equals(simpleName + ".java")) {
+                    hidden.put(simpleName, file);
+                }
+            }
+        }
+        return hidden;
+    }
+
+    /** Files that have been compiled since they were last modified. */
+    static synchronized Set<Path> resolvedFiles() {
+        var found = new HashSet<Path>();
+        for (var file : resolved.keySet()) {
+            if (isResolved(file)) {
+                found.add(file);
+            }
+        }
+        return found;
+    }
+
+    static synchronized void forget(Path file) {
+        resolved.remove(file);
+    }
+
+    static synchronized void clear() {
+        resolved.clear();
+    }
+
+    private static boolean isResolved(Path file) {
+        var r = resolved.get(file);
+        return r != null && FileStore.contains(file) && r.modified == FileStore.modified(file).toEpochMilli();
+    }
+
+    private static final Pattern PACKAGE_EXTRACTOR = Pattern.compile("^([a-z][_a-zA-Z0-9]*\\.)*[a-z][_a-zA-Z0-9]*");
+
+    /** The package of className, assuming packages are lowercase and classes are capitalized */
+    private static String packageName(String className) {
+        var m = PACKAGE_EXTRACTOR.matcher(className);
+        if (m.find()) {
+            return m.group();
+        }
+        return "";
+    }
+
+    /** The top-level class that contains className, which might be nested */
+    private static String topLevelName(String className) {
+        var packageName = packageName(className);
+        var start = packageName.isEmpty() ? 0 : packageName.length() + 1;
+        var end = className.indexOf('.', start);
+        if (end == -1) return className;
+        return className.substring(0, end);
+    }
+
+    private static void appendSignature(TypeElement type, StringBuilder signature) {
+        signature.append(type.getModifiers()).append(type.getKind()).append(' ').append(type.asType());
+        signature.append(" extends ").append(type.getSuperclass()).append(" implements ").append(type.getInterfaces());
+        signature.append('\n');
+        for (var member : type.getEnclosedElements()) {
+            if (member.getModifiers().contains(Modifier.PRIVATE)) continue;
+            if (member instanceof TypeElement) {
+                appendSignature((TypeElement) member, signature);
+                continue;
+            }
+            signature.append(member.getModifiers()).append(member.getKind()).append(' ');
+            signature.append(member.getSimpleName()).append(' ').append(member.asType());
+            if (member instanceof ExecutableElement) {
+                signature.append(" throws ").append(((ExecutableElement) member).getThrownTypes());
+            }
+            if (member instanceof VariableElement) {
+                // Constants are inlined into the files that use them
+                signature.append(" = ").append(((VariableElement) member).getConstantValue());
+            }
+            signature.append('\n');
+        }
+    }
+
+    /**
+     * FindUsedTypes collects the top-level types of everything a file refers to by name, and of every supertype of the
+     * classes it declares, since their members are inherited without being named.
+     */
+    private static class FindUsedTypes extends TreePathScanner<Void, Set<String>> {
+        final Trees trees;
+
+        FindUsedTypes(Trees trees) {
+            this.trees = trees;
+        }
+
+        @Override
+        public Void visitClass(ClassTree t, Set<String> used) {
+            var type = trees.getElement(getCurrentPath());
+            if (type instanceof TypeElement) {
+                addSupertypes((TypeElement) type, used, new HashSet<>());
+            }
+            return super.visitClass(t, used);
+        }
+
+        @Override
+        public Void visitIdentifier(IdentifierTree t, Set<String> used) {
+            addTopLevel(trees.getElement(getCurrentPath()), used);
+            return super.visitIdentifier(t, used);
+        }
+
+        @Override
+        public Void visitMemberSelect(MemberSelectTree t, Set<String> used) {
+            addTopLevel(trees.getElement(getCurrentPath()), used);
+            return super.visitMemberSelect(t, used);
+        }
+
+        @Override
+        public Void visitMemberReference(MemberReferenceTree t, Set<String> used) {
+            addTopLevel(trees.getElement(getCurrentPath()), used);
+            return super.visitMemberReference(t, used);
+        }
+
+        @Override
+        public Void visitNewClass(NewClassTree t, Set<String> used) {
+            // The constructor, which might not be mentioned by name if the class is anonymous
+            addTopLevel(trees.getElement(getCurrentPath()), used);
+            return super.visitNewClass(t, used);
+        }
+
+        private void addSupertypes(TypeElement type, Set<String> used, Set<Element> visited) {
+            var supertypes = new ArrayList<TypeMirror>();
+            supertypes.add(type.getSuperclass());
+            supertypes.addAll(type.getInterfaces());
+            for (var s : supertypes) {
+                if (!(s instanceof DeclaredType)) continue;
+                var superclass = ((DeclaredType) s).asElement();
+                // visited guards against cycles, which javac reports as errors but still lets us see
+                if (!(superclass instanceof TypeElement) || !visited.add(superclass)) continue;
+                addTopLevel(superclass, used);
+                addSupertypes((TypeElement) superclass, used, visited);
+            }
+        }
+
+        private void addTopLevel(Element el, Set<String> used) {
+            if (el == null || el instanceof PackageElement || el instanceof ModuleElement) return;
+            while (el.getEnclosingElement() != null && !(el.getEnclosingElement() instanceof PackageElement)) {
+                el = el.getEnclosingElement();
+            }
+            if (el instanceof TypeElement) {
+                used.add(((TypeElement) el).getQualifiedName().toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package org.javacs;
+
+import com.sun.source.doctree.DocCommentTree;
+import com.sun.source.tree.*;
+import com.sun.source.util.DocTrees;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TreePathScanner;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.net.URI;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import javax.lang.model.element.Name;
+import javax.tools.JavaFileObject;
+
+/**
+ * DocIndex remembers the docs of library classes as rendered markdown, so hover and completionItem/resolve can look up
+ * a member instead of finding its source in a jar or src.zip and parsing it every time. The first time a class is
+ * looked up, its source file is parsed once and every member in it is rendered.
+ *
+ * <p>Rendered classes are saved in the background under dir, in one file per source jar, so the next session starts
+ * with them. Rebuilding one jar only throws away the docs of that jar. The docs of a jar don't depend on the workspace,
+ * so each file is shared by every workspace that uses the same jar, and files nobody has used for a while are deleted.
+ */
+public class DocIndex {
+    public static class Doc {
+        /** The declaration of a method with its parameter names, or null if the member isn't a method */
+        public final String detail;
+        /** The first sentence of the doc comment as markdown, or "" if there isn't one */
+        public final String markdown;
+
+        Doc(String detail, String markdown) {
+            this.detail = detail;
+            this.markdown = markdown;
+        }
+    }
+
+    /** Bump this whenever the format of the saved index or the rendered markdown changes. */
+    private static final int VERSION = 2;
+
+    /** Where indexes are saved by default */
+    static final Path DEFAULT_DIR = Paths.get(System.getProperty("user.home"), ".javacs", "docs");
+
+    private static final ExecutorService saver = Executors.newSingleThreadExecutor(DocIndex::daemon);
+
+    private static Thread daemon(Runnable r) {
+        var t = new Thread(r, "save-doc-index");
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** The docs of one source jar, or src.zip, which are saved in their own file */
+    private static class Archive {
+        final Path path;
+        /** The saved index */
+        final Path file;
+        /** docs[className][key(className, member, parameters)] for every class of this archive we have rendered */
+        final Map<String, Map<String, Doc>> docs = new HashMap<>();
+
+        Archive(Path dir, Path path) {
+            this.path = path.toAbsolutePath().normalize();
+            this.file = dir.resolve(fileName(this.path));
+        }
+    }
+
+    /** Index files that haven't been read or written for this long belong to jars nobody uses any more */
+    private static final Duration MAX_UNUSED = Duration.ofDays(30);
+
+    private final Path dir;
+    private final List<Archive> archives = new ArrayList<>();
+    /** Finds the source of a library class, or empty if className isn't in a library */
+    private final Function<String, Optional<JavaFileObject>> findSource;
+    /** docs[className][key(className, member, parameters)] for every archive, or null until loaded */
+    private Map<String, Map<String, Doc>> docs;
+    /** Classes that aren't in a library, which we don't need to look for again */
+    private final Set<String> notFound = new HashSet<>();
+    /** Archives with classes that have been rendered since they were last saved */
+    private final Set<Archive> unsaved = new HashSet<>();
+
+    private boolean isSaveScheduled;
+
+    /** archives is every jar and src.zip that findSource looks in. Each one is indexed separately. */
+    DocIndex(Path dir, Collection<Path> archives, Function<String, Optional<JavaFileObject>> findSource) {
+        this.dir = dir;
+        for (var a : archives) {
+            this.archives.add(new Archive(dir, a));
+        }
+        this.findSource = findSource;
+    }
+
+    /**
+     * The docs of a library class or one of its members, or empty if className isn't in a library or we can't find the
+     * member. memberName is null for the class itself, and erasedParameterTypes is null for fields.
+     */
+    public synchronized Optional<Doc> find(String className, String memberName, String[] erasedParameterTypes) {
+        if (docs == null) {
+            docs = new HashMap<>();
+            for (var a : archives) {
+                a.docs.putAll(load(a));
+                docs.putAll(a.docs);
+            }
+        }
+        var members = docs.get(className);
+        if (members == null) {
+            if (notFound.contains(className)) return Optional.empty();
+            members = render(className);
+            if (members == null) {
+                notFound.add(className);
+                return Optional.empty();
+            }
+        }
+        return Optional.ofNullable(members.get(key(className, memberName, erasedParameterTypes)));
+    }
+
+    private Map<String, Doc> render(String className) {
+        var source = findSource.apply(className);
+        if (source.isEmpty()) return null;
+        LOG.info("Index docs of " + source.get().toUri() + "...");
+        var parse = Parser.parseUncached(source.get());
+        var found = new HashMap<String, Map<String, Doc>>();
+        new RenderDocs(parse.task, found).scan(parse.root, null);
+        docs.putAll(found);
+        // Sources outside the archives, if there are any, are only remembered for this session
+        var archive = archiveOf(source.get().toUri());
+        if (archive != null) {
+            archive.docs.putAll(found);
+            unsaved.add(archive);
+            scheduleSave();
+        }
+        if (!found.containsKey(className)) {
+            LOG.warning("..." + source.get().toUri() + " doesn't declare " + className);
+            return null;
+        }
+        return found.get(className);
+    }
+
+    /** The archive that uri, like jar:file:///a/b-sources.jar!/c/D.java, is in, or null */
+    private Archive archiveOf(URI uri) {
+        var location = uri.toString();
+        if (location.startsWith("jar:")) {
+            var bang = location.indexOf("!/");
+            if (bang == -1) return null;
+            location = location.substring("jar:".length(), bang);
+        }
+        if (!location.startsWith("file:")) return null;
+        var path = Paths.get(URI.create(location));
+        for (var a : archives) {
+            if (path.startsWith(a.path)) return a;
+        }
+        return null;
+    }
+
+    /** The key of a member, which identifies a method by its name and the simple names of its erased parameters */
+    static String key(String className, String memberName, String[] erasedParameterTypes) {
+        if (memberName == null) return className;
+        if (erasedParameterTypes == null) return className + "#" + memberName;
+        var parameters = new StringJoiner(",");
+        for (var p : erasedParameterTypes) {
+            parameters.add(simpleName(p));
+        }
+        return className + "#" + memberName + "(" + parameters + ")";
+    }
+
+    private static String simpleName(String typeName) {
+        return typeName.substring(typeName.lastIndexOf('.') + 1);
+    }
+
+    /** The declaration of method, like `void add(int index, E element)` */
+    public static String detail(MethodTree method) {
+        var parameters = new StringJoiner(", ");
+        for (var p : method.getParameters()) {
+            parameters.add(p.getType() + " " + p.getName());
+        }
+        var detail = method.getReturnType() + " " + method.getName() + "(" + parameters + ")";
+        if (!method.getThrows().isEmpty()) {
+            var exceptions = new StringJoiner(", ");
+            for (var e : method.getThrows()) {
+                exceptions.add(e.toString());
+            }
+            detail += " throws " + exceptions;
+        }
+        return detail;
+    }
+
+    /** Renders the docs of every class in a file, and every field, method and constructor of those classes */
+    private static class RenderDocs extends TreePathScanner<Void, Void> {
+        private final DocTrees trees;
+        private final Map<String, Map<String, Doc>> found;
+        /** The classes we're inside, innermost last */
+        private final Deque<String> classNames = new ArrayDeque<>();
+        /** The type parameters of the classes and method we're inside, and what they erase to */
+        private final Deque<Map<Name, Tree>> typeParameters = new ArrayDeque<>();
+
+        RenderDocs(JavacTask task, Map<String, Map<String, Doc>> found) {
+            this.trees = DocTrees.instance(task);
+            this.found = found;
+        }
+
+        @Override
+        public Void visitClass(ClassTree t, Void nothing) {
+            String className;
+            if (classNames.isEmpty()) {
+                var packageName = Objects.toString(getCurrentPath().getCompilationUnit().getPackageName(), "");
+                className = packageName.isEmpty() ? t.getSimpleName().toString() : packageName + "." + t.getSimpleName();
+            } else {
+                className = classNames.peekLast() + "." + t.getSimpleName();
+            }
+            var members = found.computeIfAbsent(className, k -> new HashMap<>());
+            members.put(className, new Doc(null, markdown()));
+            classNames.addLast(className);
+            typeParameters.addLast(typeParameters(t.getTypeParameters()));
+            try {
+                return super.visitClass(t, nothing);
+            } finally {
+                typeParameters.removeLast();
+                classNames.removeLast();
+            }
+        }
+
+        @Override
+        public Void visitMethod(MethodTree t, Void nothing) {
+            typeParameters.addLast(typeParameters(t.getTypeParameters()));
+            try {
+                var parameters = new String[t.getParameters().size()];
+                for (var i = 0; i < parameters.length; i++) {
+                    parameters[i] = erasure(t.getParameters().get(i).getType(), 0);
+                }
+                var className = classNames.peekLast();
+                var key = key(className, t.getName().toString(), parameters);
+                found.get(className).putIfAbsent(key, new Doc(detail(t), markdown()));
+            } finally {
+                typeParameters.removeLast();
+            }
+            // Method bodies only contain local and anonymous classes, which can't be looked up by name
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(VariableTree t, Void nothing) {
+            if (!(getCurrentPath().getParentPath().getLeaf() instanceof ClassTree)) return null;
+            var className = classNames.peekLast();
+            var key = key(className, t.getName().toString(), null);
+            found.get(className).putIfAbsent(key, new Doc(null, markdown()));
+            return null;
+        }
+
+        @Override
+        public Void visitBlock(BlockTree t, Void nothing) {
+            // Initializers only contain local and anonymous classes
+            return null;
+        }
+
+        private String markdown() {
+            DocCommentTree doc = trees.getDocCommentTree(getCurrentPath());
+            if (doc == null) return "";
+            return MarkdownHelper.asMarkdown(doc);
+        }
+
+        private Map<Name, Tree> typeParameters(List<? extends TypeParameterTree> parameters) {
+            var erasures = new HashMap<Name, Tree>();
+            for (var p : parameters) {
+                erasures.put(p.getName(), p.getBounds().isEmpty() ? null : p.getBounds().get(0));
+            }
+            return erasures;
+        }
+
+        /** The simple name of the erasure of type, the way key(...) writes it */
+        private String erasure(Tree type, int depth) {
+            if (type instanceof ParameterizedTypeTree) {
+                return erasure(((ParameterizedTypeTree) type).getType(), depth);
+            } else if (type instanceof ArrayTypeTree) {
+                return erasure(((ArrayTypeTree) type).getType(), depth) + "[]";
+            } else if (type instanceof AnnotatedTypeTree) {
+                return erasure(((AnnotatedTypeTree) type).getUnderlyingType(), depth);
+            } else if (type instanceof MemberSelectTree) {
+                return ((MemberSelectTree) type).getIdentifier().toString();
+            } else if (type instanceof IdentifierTree) {
+                var name = ((IdentifierTree) type).getName();
+                // A type variable erases to its first bound, which can be another type variable
+                var it = typeParameters.descendingIterator();
+                while (it.hasNext() && depth < 10) {
+                    var scope = it.next();
+                    if (scope.containsKey(name)) {
+                        var bound = scope.get(name);
+                        return bound == null ? "Object" : erasure(bound, depth + 1);
+                    }
+                }
+                return name.toString();
+            } else {
+                return type.toString();
+            }
+        }
+    }
+
+    private synchronized void scheduleSave() {
+        if (isSaveScheduled) return;
+        isSaveScheduled = true;
+        saver.execute(this::save);
+    }
+
+    /** Write the classes of every archive with newly rendered classes to its file, and delete unused files. */
+    void save() {
+        var snapshots = new HashMap<Archive, Map<String, Map<String, Doc>>>();
+        synchronized (this) {
+            isSaveScheduled = false;
+            for (var a : unsaved) {
+                snapshots.put(a, new HashMap<>(a.docs));
+            }
+            unsaved.clear();
+        }
+        for (var a : snapshots.keySet()) {
+            save(a, snapshots.get(a));
+        }
+        if (!snapshots.isEmpty()) {
+            pruneUnused();
+        }
+    }
+
+    private void save(Archive archive, Map<String, Map<String, Doc>> snapshot) {
+        try {
+            Files.createDirectories(dir);
+            var temp = Files.createTempFile(dir, "docs", ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(VERSION);
+                writeString(out, stamp(archive.path));
+                out.writeInt(snapshot.size());
+                for (var c : snapshot.entrySet()) {
+                    writeString(out, c.getKey());
+                    out.writeInt(c.getValue().size());
+                    for (var m : c.getValue().entrySet()) {
+                        writeString(out, m.getKey());
+                        out.writeBoolean(m.getValue().detail != null);
+                        if (m.getValue().detail != null) {
+                            writeString(out, m.getValue().detail);
+                        }
+                        writeString(out, m.getValue().markdown);
+                    }
+                }
+            }
+            Files.move(temp, archive.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info(String.format("Saved docs of %,d classes to %s", snapshot.size(), archive.file));
+        } catch (IOException e) {
+            LOG.warning("Failed to write " + archive.file + ": " + e.getMessage());
+        }
+    }
+
+    /** Delete the index files of jars that haven't been used for MAX_UNUSED, like old versions of a dependency */
+    private void pruneUnused() {
+        var cutoff = FileTime.from(Instant.now().minus(MAX_UNUSED));
+        try (var files = Files.newDirectoryStream(dir, "*.idx")) {
+            for (var f : files) {
+                if (Files.getLastModifiedTime(f).compareTo(cutoff) < 0) {
+                    LOG.info("Delete unused " + f);
+                    Files.deleteIfExists(f);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warning("Failed to prune " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private Map<String, Map<String, Doc>> load(Archive archive) {
+        var docs = new HashMap<String, Map<String, Doc>>();
+        var file = archive.file;
+        if (!Files.exists(file)) return docs;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                LOG.info("Ignoring " + file + " because it was written by a different version");
+                return docs;
+            }
+            if (!readString(in).equals(stamp(archive.path))) {
+                LOG.info("Ignoring " + file + " because " + archive.path + " has changed");
+                return docs;
+            }
+            var classes = in.readInt();
+            for (var i = 0; i < classes; i++) {
+                var className = readString(in);
+                var count = in.readInt();
+                var members = new HashMap<String, Doc>(count);
+                for (var j = 0; j < count; j++) {
+                    var key = readString(in);
+                    var detail = in.readBoolean() ? readString(in) : null;
+                    members.put(key, new Doc(detail, readString(in)));
+                }
+                docs.put(className, members);
+            }
+            // Mark the index as used, so pruneUnused() keeps it
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            LOG.info(String.format("Loaded docs of %,d classes from %s", docs.size(), file));
+            return docs;
+        } catch (IOException e) {
+            LOG.warning("Failed to read " + file + ": " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    // DataOutputStream.writeUTF is limited to 64KB, which a long doc comment can exceed
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** The name of the index file of archive, which is the same as long as archive stays in the same place */
+    private static String fileName(Path archive) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(archive.toString().getBytes(StandardCharsets.UTF_8));
+            var hex = new StringBuilder();
+            for (var b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return archive.getFileName() + "-" + hex.substring(0, 16) + ".idx";
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** The size and modified time of archive, which change if it is replaced, for example by rebuilding a SNAPSHOT */
+    private static String stamp(Path archive) {
+        try {
+            if (!Files.exists(archive)) return "";
+            return Files.size(archive) + ":" + Files.getLastModifiedTime(archive).toMillis();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
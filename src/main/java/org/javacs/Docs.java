@@ -14,8 +14,15 @@ public class Docs {
     /** File manager with source-path + platform sources, which we will use to look up individual source files */
     final SourceFileManager fileManager = new SourceFileManager();
 
+    /** The source jars and src.zip that fileManager looks in */
+    final Set<Path> archives = new HashSet<>();
+
     Docs(Set<Path> docPath) {
         var srcZipPath = srcZip();
+        archives.addAll(docPath);
+        if (srcZipPath != NOT_FOUND) {
+            archives.add(cacheSrcZip);
+        }
         // Path to source .jars + src.zip
         var sourcePath = new ArrayList<Path>(docPath);
         if (srcZipPath != NOT_FOUND) {
@@ -6,6 +6,7 @@ import java.nio.file.*;
 import java.nio.file.attribute.*;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import javax.lang.model.element.TypeElement;
 import org.javacs.lsp.DidChangeTextDocumentParams;
@@ -17,12 +18,17 @@ public class FileStore {
 
     private static final Set<Path> workspaceRoots = new HashSet<>();
 
-    private static final Map<Path, VersionedContent> activeDocuments = new HashMap<>();
+    private static final Map<Path, VersionedContent> activeDocuments = new ConcurrentHashMap<>();
 
     /** javaSources[file] is the javaSources time of a .java source file. */
-    // TODO organize by package name for speed of list(...)
     private static final TreeMap<Path, Info> javaSources = new TreeMap<>();
 
+    /** javaSourcesByPackage[packageName] is the set of .java source files that declare packageName. */
+    private static final Map<String, TreeSet<Path>> javaSourcesByPackage = new HashMap<>();
+
+    /** generation changes whenever a source file is added or removed, or moves to a different package */
+    private static long generation;
+
     private static class Info {
         final Instant modified;
         final String packageName;
@@ -33,11 +39,11 @@ public class FileStore {
         }
     }
 
-    static void setWorkspaceRoots(Set<Path> newRoots) {
+    static synchronized void setWorkspaceRoots(Set<Path> newRoots) {
         newRoots = normalize(newRoots);
         for (var root : workspaceRoots) {
             if (!newRoots.contains(root)) {
-                workspaceRoots.removeIf(f -> f.startsWith(root));
+                removeFiles(root, newRoots);
             }
         }
         for (var root : newRoots) {
@@ -57,6 +63,21 @@ public class FileStore {
         return normalize;
     }
 
+    /** Forget the files in root, except the ones that are still inside one of keepRoots */
+    private static void removeFiles(Path root, Set<Path> keepRoots) {
+        var remove = new ArrayList<Path>();
+        for (var file : javaSourcesIn(root)) {
+            var keep = false;
+            for (var keepRoot : keepRoots) {
+                keep = keep || file.startsWith(keepRoot);
+            }
+            if (!keep) remove.add(file);
+        }
+        for (var file : remove) {
+            removeInfo(file);
+        }
+    }
+
     private static void addFiles(Path root) {
         try {
             Files.walkFileTree(root, new FindJavaSources());
@@ -84,21 +105,27 @@ public class FileStore {
         }
     }
 
-    static Collection<Path> all() {
-        return javaSources.keySet();
+    static synchronized Set<Path> workspaceRoots() {
+        return Set.copyOf(workspaceRoots);
     }
 
-    static List<Path> list(String packageName) {
-        var list = new ArrayList<Path>();
-        for (var file : javaSources.keySet()) {
-            if (javaSources.get(file).packageName.equals(packageName)) {
-                list.add(file);
-            }
-        }
-        return list;
+    /** A snapshot of all the .java files in the workspace, in sorted order */
+    static synchronized Collection<Path> all() {
+        return new ArrayList<>(javaSources.keySet());
     }
 
-    public static Set<Path> sourceRoots() {
+    /** Compare generation() before and after to find out if the set of files or their packages changed in between. */
+    static synchronized long generation() {
+        return generation;
+    }
+
+    static synchronized List<Path> list(String packageName) {
+        var files = javaSourcesByPackage.get(packageName);
+        if (files == null) return List.of();
+        return new ArrayList<>(files);
+    }
+
+    public static synchronized Set<Path> sourceRoots() {
         var roots = new HashSet<Path>();
         for (var file : javaSources.keySet()) {
             var root = sourceRoot(file);
@@ -124,14 +151,15 @@ public class FileStore {
         return dir;
     }
 
-    static boolean contains(Path file) {
+    static synchronized boolean contains(Path file) {
         return isJavaFile(file) && javaSources.containsKey(file);
     }
 
-    static Instant modified(Path file) {
+    static synchronized Instant modified(Path file) {
         // If file is open, use last in-memory modification time
-        if (activeDocuments.containsKey(file)) {
-            return activeDocuments.get(file).modified;
+        var open = activeDocuments.get(file);
+        if (open != null) {
+            return open.modified;
         }
         // If we've never checked before, look up modified time on disk
         if (!javaSources.containsKey(file)) {
@@ -141,7 +169,7 @@ public class FileStore {
         return javaSources.get(file).modified;
     }
 
-    static String packageName(Path file) {
+    static synchronized String packageName(Path file) {
         // If we've never checked before, look up package name on disk
         if (!javaSources.containsKey(file)) {
             readInfoFromDisk(file);
@@ -150,7 +178,7 @@ public class FileStore {
         return javaSources.get(file).packageName;
     }
 
-    public static String suggestedPackageName(Path file) {
+    public static synchronized String suggestedPackageName(Path file) {
         // Look in each parent directory of file
         for (var dir = file.getParent(); dir != null; dir = dir.getParent()) {
             // Try to find a sibling with a package declaration
@@ -179,39 +207,67 @@ public class FileStore {
         return list;
     }
 
-    static void externalCreate(Path file) {
+    static synchronized void externalCreate(Path file) {
         readInfoFromDisk(file);
+        Cache.invalidate(file);
     }
 
-    static void externalChange(Path file) {
+    static synchronized void externalChange(Path file) {
         readInfoFromDisk(file);
+        Cache.invalidate(file);
     }
 
-    static void externalDelete(Path file) {
-        javaSources.remove(file);
+    static synchronized void externalDelete(Path file) {
+        removeInfo(file);
+        Cache.invalidate(file);
     }
 
     private static void readInfoFromDisk(Path file) {
         try {
             var time = Files.getLastModifiedTime(file).toInstant();
             var packageName = StringSearch.packageName(file);
-            javaSources.put(file, new Info(time, packageName));
+            putInfo(file, new Info(time, packageName));
         } catch (NoSuchFileException e) {
             LOG.warning(e.getMessage());
-            javaSources.remove(file);
+            removeInfo(file);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    static void open(DidOpenTextDocumentParams params) {
+    /** Update javaSources and javaSourcesByPackage together, so they always agree */
+    private static void putInfo(Path file, Info info) {
+        var previous = javaSources.get(file);
+        if (previous != null && previous.packageName.equals(info.packageName)) {
+            javaSources.put(file, info);
+            return;
+        }
+        removeInfo(file);
+        javaSources.put(file, info);
+        javaSourcesByPackage.computeIfAbsent(info.packageName, __ -> new TreeSet<>()).add(file);
+        generation++;
+    }
+
+    private static void removeInfo(Path file) {
+        var info = javaSources.remove(file);
+        if (info == null) return;
+        var files = javaSourcesByPackage.get(info.packageName);
+        files.remove(file);
+        if (files.isEmpty()) {
+            javaSourcesByPackage.remove(info.packageName);
+        }
+        generation++;
+    }
+
+    static synchronized void open(DidOpenTextDocumentParams params) {
         if (!isJavaFile(params.textDocument.uri)) return;
         var document = params.textDocument;
         var file = Paths.get(document.uri);
-        activeDocuments.put(file, new VersionedContent(document.text, document.version));
+        activeDocuments.put(file, new VersionedContent(Rope.of(document.text), document.version));
+        Cache.invalidate(file);
     }
 
-    static void change(DidChangeTextDocumentParams params) {
+    static synchronized void change(DidChangeTextDocumentParams params) {
         if (!isJavaFile(params.textDocument.uri)) return;
         var document = params.textDocument;
         var file = Paths.get(document.uri);
@@ -222,28 +278,41 @@ public class FileStore {
         }
         var newText = existing.content;
         for (var change : params.contentChanges) {
-            if (change.range == null) newText = change.text;
+            if (change.range == null) newText = Rope.of(change.text);
             else newText = patch(newText, change);
         }
         activeDocuments.put(file, new VersionedContent(newText, document.version));
+        Cache.invalidate(file);
     }
 
-    static void close(DidCloseTextDocumentParams params) {
+    static synchronized void close(DidCloseTextDocumentParams params) {
         if (!isJavaFile(params.textDocument.uri)) return;
         var file = Paths.get(params.textDocument.uri);
         activeDocuments.remove(file);
+        // The file goes back to its contents on disk, which may be older than anything cached while it was open
+        Cache.invalidate(file);
     }
 
     static Set<Path> activeDocuments() {
         return activeDocuments.keySet();
     }
 
+    /** The version of each open document, so callers can tell if any of them changed between two requests */
+    public static Map<Path, Integer> activeVersions() {
+        var versions = new HashMap<Path, Integer>();
+        for (var entry : activeDocuments.entrySet()) {
+            versions.put(entry.getKey(), entry.getValue().version);
+        }
+        return versions;
+    }
+
     public static String contents(Path file) {
         if (!isJavaFile(file)) {
             throw new RuntimeException(file + " is not a java file");
         }
-        if (activeDocuments.containsKey(file)) {
-            return activeDocuments.get(file).content;
+        var open = activeDocuments.get(file);
+        if (open != null) {
+            return open.content.toString();
         }
         try {
             return Files.readString(file);
@@ -256,10 +325,9 @@ public class FileStore {
     }
 
     static InputStream inputStream(Path file) {
-        var uri = file.toUri();
-        if (activeDocuments.containsKey(uri)) {
-            var string = activeDocuments.get(uri).content;
-            var bytes = string.getBytes();
+        var open = activeDocuments.get(file);
+        if (open != null) {
+            var bytes = open.content.toString().getBytes();
             return new ByteArrayInputStream(bytes);
         }
         try {
@@ -274,10 +342,9 @@ public class FileStore {
     }
 
     static BufferedReader bufferedReader(Path file) {
-        var uri = file.toUri();
-        if (activeDocuments.containsKey(uri)) {
-            var string = activeDocuments.get(uri).content;
-            return new BufferedReader(new StringReader(string));
+        var open = activeDocuments.get(file);
+        if (open != null) {
+            return new BufferedReader(open.content.reader());
         }
         try {
             return Files.newBufferedReader(file);
@@ -293,55 +360,29 @@ public class FileStore {
         return bufferedReader(file);
     }
 
-    /** Convert from line/column (1-based) to offset (0-based) */
-    static int offset(String contents, int line, int column) {
-        line--;
-        column--;
-        int cursor = 0;
-        while (line > 0) {
-            if (contents.charAt(cursor) == '\n') {
-                line--;
-            }
-            cursor++;
+    /** Line indexes of files that aren't open, which expire when the file is modified */
+    private static final Cache<Void, LineIndex> lineIndexes =
+            new Cache<>("lineIndexes", 1_000_000, (__, lines) -> lines.lineCount());
+
+    /** Where each line of file starts, computed once per version of file. */
+    static LineIndex lineIndex(Path file) {
+        var open = activeDocuments.get(file);
+        if (open != null) {
+            return open.lines();
         }
-        return cursor + column;
+        return lineIndexes.get(file, null, () -> LineIndex.of(contents(file)));
     }
 
-    private static String patch(String sourceText, TextDocumentContentChangeEvent change) {
-        try {
-            var range = change.range;
-            var reader = new BufferedReader(new StringReader(sourceText));
-            var writer = new StringWriter();
-
-            // Skip unchanged lines
-            int line = 0;
-
-            while (line < range.start.line) {
-                writer.write(reader.readLine() + '\n');
-                line++;
-            }
-
-            // Skip unchanged chars
-            for (int character = 0; character < range.start.character; character++) {
-                writer.write(reader.read());
-            }
-
-            // Write replacement text
-            writer.write(change.text);
-
-            // Skip replaced text
-            reader.skip(change.rangeLength);
-
-            // Write remaining text
-            while (true) {
-                int next = reader.read();
+    /** Convert from line/column (1-based) to offset (0-based) */
+    public static int offset(Path file, int line, int column) {
+        return (int) lineIndex(file).getPosition(line, column);
+    }
 
-                if (next == -1) return writer.toString();
-                else writer.write(next);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    private static Rope patch(Rope sourceText, TextDocumentContentChangeEvent change) {
+        var range = change.range;
+        var start = sourceText.offset(range.start.line, range.start.character);
+        var end = sourceText.offset(range.end.line, range.end.character);
+        return sourceText.replace(start, end, change.text);
     }
 
     static boolean isJavaFile(Path file) {
@@ -382,13 +423,21 @@ public class FileStore {
 }
 
 class VersionedContent {
-    final String content;
+    final Rope content;
     final int version;
     final Instant modified = Instant.now();
+    private LineIndex lines;
 
-    VersionedContent(String content, int version) {
+    VersionedContent(Rope content, int version) {
         Objects.requireNonNull(content, "content is null");
         this.content = content;
         this.version = version;
     }
+
+    synchronized LineIndex lines() {
+        if (lines == null) {
+            lines = LineIndex.of(content.toString());
+        }
+        return lines;
+    }
 }
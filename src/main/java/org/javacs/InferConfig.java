@@ -3,10 +3,16 @@ package org.javacs;
 import com.google.devtools.build.lib.analysis.AnalysisProtos;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -119,6 +125,95 @@ class InferConfig {
         return Collections.emptySet();
     }
 
+    /**
+     * Names of the files that classPath() and buildDocPath() read, directly or through mvn and bazel. Bazel also reads
+     * every *.bzl file that these load, which is where dependency versions usually live.
+     */
+    static final Set<String> BUILD_FILES =
+            Set.of(
+                    "pom.xml",
+                    "BUILD",
+                    "BUILD.bazel",
+                    "WORKSPACE",
+                    "WORKSPACE.bazel",
+                    "WORKSPACE.bzlmod",
+                    "MODULE.bazel");
+
+    static boolean isBuildFile(Path file) {
+        var name = file.getFileName().toString();
+        return BUILD_FILES.contains(name) || name.endsWith(".bzl");
+    }
+
+    /**
+     * A hash of everything classPath() and buildDocPath() depend on: externalDependencies, and the contents of every
+     * build file in the workspace. If the hash hasn't changed, neither have the inferred paths.
+     */
+    String buildHash() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        for (var id : new TreeSet<>(externalDependencies)) {
+            digest.update(id.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        var bazelWorkspaceRoot = bazelWorkspaceRoot();
+        var files = new TreeSet<Path>(findBuildFiles(workspaceRoot));
+        if (!bazelWorkspaceRoot.equals(workspaceRoot)) {
+            files.add(bazelWorkspaceRoot.resolve("WORKSPACE"));
+            var module = bazelWorkspaceRoot.resolve("MODULE.bazel");
+            if (Files.exists(module)) files.add(module);
+        }
+        for (var file : files) {
+            try {
+                digest.update(file.toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(Files.readAllBytes(file));
+                digest.update((byte) 0);
+            } catch (IOException e) {
+                LOG.warning("Failed to read " + file + ": " + e.getMessage());
+            }
+        }
+        var hex = new StringBuilder();
+        for (var b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static List<Path> findBuildFiles(Path root) {
+        var found = new ArrayList<Path>();
+        try {
+            Files.walkFileTree(
+                    root,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            var name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                            // Skip .git, build outputs, and the symlinks bazel creates to its output directories
+                            var skip = name.startsWith(".") || name.equals("target") || name.equals("node_modules");
+                            if (skip && !dir.equals(root)) {
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (attrs.isRegularFile() && isBuildFile(file)) {
+                                found.add(file);
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return found;
+    }
+
     private Path findAnyJar(Artifact artifact, boolean source) {
         Path maven = findMavenJar(artifact, source);
 
@@ -3,25 +3,34 @@ package org.javacs;
 import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import javax.tools.*;
+import org.javacs.lsp.CancelToken;
 
 class JavaCompilerService implements CompilerProvider {
     // Not modifiable! If you want to edit these, you need to create a new instance
     final Set<Path> classPath, docPath;
     final Set<String> addExports;
-    final ReusableCompiler compiler = new ReusableCompiler();
     final Docs docs;
+    /** Rendered docs of classes in docs, which are looked up instead of parsing their source again */
+    private final DocIndex docIndex;
     final Set<String> jdkClasses = ScanClassPath.jdkTopLevelClasses(), classPathClasses;
-    // Diagnostics from the last compilation task
-    final List<Diagnostic<? extends JavaFileObject>> diags = new ArrayList<>();
+    /** The public top-level classes of the JDK and the class path, which don't change while this compiler lives */
+    private final ClassNameIndex libraryClassNames;
     // Use the same file manager for multiple tasks, so we don't repeatedly re-compile the same files
-    // TODO intercept files that aren't in the batch and erase method bodies so compilation is faster
     final SourceFileManager fileManager;
 
+    /** Recent compilations, which are reused if the same files are compiled again */
+    private final CompilePool pool;
+
     JavaCompilerService(Set<Path> classPath, Set<Path> docPath, Set<String> addExports) {
+        this(classPath, docPath, addExports, CompilePool.defaultBudget());
+    }
+
+    /** compilerMemoryBudget is roughly how many bytes of heap recent compilations are allowed to hold on to */
+    JavaCompilerService(Set<Path> classPath, Set<Path> docPath, Set<String> addExports, long compilerMemoryBudget) {
         System.err.println("Class path:");
         for (var p : classPath) {
             System.err.println("  " + p);
@@ -35,45 +44,31 @@ class JavaCompilerService implements CompilerProvider {
         this.docPath = Collections.unmodifiableSet(docPath);
         this.addExports = Collections.unmodifiableSet(addExports);
         this.docs = new Docs(docPath);
+        this.docIndex = new DocIndex(DocIndex.DEFAULT_DIR, docs.archives, this::findInLibraries);
         this.classPathClasses = ScanClassPath.classPathTopLevelClasses(classPath);
-        this.fileManager = new SourceFileManager();
+        var libraryClasses = new HashSet<String>(jdkClasses);
+        libraryClasses.addAll(classPathClasses);
+        this.libraryClassNames = ClassNameIndex.of(libraryClasses);
+        this.fileManager = new SourceFileManager(true);
+        this.pool = new CompilePool(compilerMemoryBudget);
     }
 
-    private CompileBatch cachedCompile;
-    private Map<JavaFileObject, Long> cachedModified = new HashMap<>();
+    /**
+     * compileLock is held from the moment a CompileTask is handed out until it is closed, so requests running on
+     * different threads take turns using javac instead of failing with "still in-use". Only the compile-backed part
+     * of a read is serialized: parse-only requests, and the text search that finds which files to compile, run in
+     * parallel.
+     */
+    private final ReentrantLock compileLock = new ReentrantLock();
 
-    private boolean needsCompile(Collection<? extends JavaFileObject> sources) {
-        if (cachedModified.size() != sources.size()) {
-            return true;
-        }
-        for (var f : sources) {
-            if (!cachedModified.containsKey(f)) {
-                return true;
-            }
-            if (f.getLastModified() != cachedModified.get(f)) {
-                return true;
-            }
-        }
-        return false;
-    }
+    /** Called when a compile has to wait for compileLock, so background work holding it can step aside */
+    volatile Runnable onContention = () -> {};
 
-    private void loadCompile(Collection<? extends JavaFileObject> sources) {
-        if (cachedCompile != null) {
-            if (!cachedCompile.closed) {
-                throw new RuntimeException("Compiler is still in-use!");
-            }
-            cachedCompile.borrow.close();
-        }
-        cachedCompile = doCompile(sources);
-        cachedModified.clear();
-        for (var f : sources) {
-            cachedModified.put(f, f.getLastModified());
-        }
-    }
-
-    private CompileBatch doCompile(Collection<? extends JavaFileObject> sources) {
+    private CompileBatch doCompile(
+            ReusableCompiler compiler, Collection<? extends JavaFileObject> sources, CancelToken cancel) {
         if (sources.isEmpty()) throw new RuntimeException("empty sources");
-        var firstAttempt = new CompileBatch(this, sources);
+        sources = withAdditionalSources(sources);
+        var firstAttempt = new CompileBatch(this, compiler, sources, cancel);
         var addFiles = firstAttempt.needsAdditionalSources();
         if (addFiles.isEmpty()) return firstAttempt;
         // If the compiler needs additional source files that contain package-private files
@@ -85,16 +80,28 @@ class JavaCompilerService implements CompilerProvider {
         for (var add : addFiles) {
             moreSources.add(new SourceFileObject(add));
         }
-        return new CompileBatch(this, moreSources);
+        return new CompileBatch(this, compiler, moreSources, cancel);
     }
 
-    private CompileBatch compileBatch(Collection<? extends JavaFileObject> sources) {
-        if (needsCompile(sources)) {
-            loadCompile(sources);
-        } else {
-            LOG.info("...using cached compile");
+    /**
+     * Add the files that declare package-private classes that sources mention, so we don't have to find out by compiling
+     * twice. If DependencyGraph misses any, CompileBatch.needsAdditionalSources() will still find them.
+     */
+    private Collection<? extends JavaFileObject> withAdditionalSources(Collection<? extends JavaFileObject> sources) {
+        var files = new HashSet<Path>();
+        for (var f : sources) {
+            if (f.toUri().getScheme().equals("file")) {
+                files.add(Paths.get(f.toUri()));
+            }
         }
-        return cachedCompile;
+        var addFiles = DependencyGraph.additionalSources(files);
+        if (addFiles.isEmpty()) return sources;
+        LOG.info("...also compile " + addFiles + " because they declare package-private classes");
+        var moreSources = new ArrayList<JavaFileObject>(sources);
+        for (var add : addFiles) {
+            moreSources.add(new SourceFileObject(add));
+        }
+        return moreSources;
     }
 
     private static final Pattern PACKAGE_EXTRACTOR = Pattern.compile("^([a-z][_a-zA-Z0-9]*\\.)*[a-z][_a-zA-Z0-9]*");
@@ -117,37 +124,35 @@ class JavaCompilerService implements CompilerProvider {
         return "";
     }
 
-    private static final Cache<String, Boolean> cacheContainsWord = new Cache<>();
+    private static final Cache<String, Boolean> cacheContainsWord = new Cache<>("containsWord", 100_000);
 
-    private boolean containsWord(Path file, String word) {
-        if (cacheContainsWord.needs(file, word)) {
-            cacheContainsWord.load(file, word, StringSearch.containsWord(file, word));
-        }
-        return cacheContainsWord.get(file, word);
+    /** Whether file contains word, using query, which was compiled from word, if the answer isn't cached. */
+    private boolean containsWord(Path file, String word, StringSearch.Words query) {
+        return cacheContainsWord.get(file, word, () -> query.containsAny(file));
     }
 
-    private static final Cache<Void, List<String>> cacheContainsType = new Cache<>();
+    private static final Cache<Void, List<String>> cacheContainsType =
+            new Cache<>("containsType", 100_000, (__, types) -> 1 + types.size());
 
     private boolean containsType(Path file, String className) {
-        if (cacheContainsType.needs(file, null)) {
-            var root = parse(file).root;
-            var types = new ArrayList<String>();
-            new FindTypeDeclarations().scan(root, types);
-            cacheContainsType.load(file, null, types);
-        }
-        return cacheContainsType.get(file, null).contains(className);
+        return cacheContainsType.get(file, null, () -> findTypeDeclarations(file)).contains(className);
+    }
+
+    private List<String> findTypeDeclarations(Path file) {
+        var root = parse(file).root;
+        var types = new ArrayList<String>();
+        new FindTypeDeclarations().scan(root, types);
+        return types;
     }
 
-    private Cache<Void, List<String>> cacheFileImports = new Cache<>();
+    private Cache<Void, List<String>> cacheFileImports =
+            new Cache<>("fileImports", 100_000, (__, imports) -> 1 + imports.size());
 
     private List<String> readImports(Path file) {
-        if (cacheFileImports.needs(file, null)) {
-            loadImports(file);
-        }
-        return cacheFileImports.get(file, null);
+        return cacheFileImports.get(file, null, () -> loadImports(file));
     }
 
-    private void loadImports(Path file) {
+    private List<String> loadImports(Path file) {
         var list = new ArrayList<String>();
         var importClass = Pattern.compile("^import +([\\w\\.]+\\.\\w+);");
         var importStar = Pattern.compile("^import +([\\w\\.]+\\.\\*);");
@@ -170,20 +175,36 @@ class JavaCompilerService implements CompilerProvider {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        cacheFileImports.load(file, null, list);
+        return list;
     }
 
     @Override
     public Set<String> imports() {
         var all = new HashSet<String>();
-        for (var f : FileStore.all()) {
-            all.addAll(readImports(f));
+        for (var imports : ParallelScan.map(new ArrayList<>(FileStore.all()), this::readImports)) {
+            all.addAll(imports);
         }
         return all;
     }
 
+    /** The classes of the workspace, and the FileStore.generation() they were indexed at */
+    private ClassNameIndex workspaceClassNames = ClassNameIndex.EMPTY;
+
+    private long workspaceGeneration = -1;
+
     @Override
-    public List<String> publicTopLevelTypes() {
+    public synchronized ClassNameIndex publicTopLevelTypes() {
+        // Only the workspace changes, and only when files are added or removed, so only re-index it then
+        var generation = FileStore.generation();
+        if (generation != workspaceGeneration) {
+            workspaceClassNames = ClassNameIndex.of(workspaceClasses());
+            workspaceGeneration = generation;
+        }
+        return ClassNameIndex.union(workspaceClassNames, libraryClassNames);
+    }
+
+    /** Assume each file in the workspace declares a public class with the same name as the file. */
+    private List<String> workspaceClasses() {
         var all = new ArrayList<String>();
         for (var file : FileStore.all()) {
             var fileName = file.getFileName().toString();
@@ -195,8 +216,6 @@ class JavaCompilerService implements CompilerProvider {
             }
             all.add(className);
         }
-        all.addAll(classPathClasses);
-        all.addAll(jdkClasses);
         return all;
     }
 
@@ -205,31 +224,16 @@ class JavaCompilerService implements CompilerProvider {
         return List.of("TODO");
     }
 
-    private boolean containsImport(Path file, String className) {
-        var packageName = packageName(className);
-        if (FileStore.packageName(file).equals(packageName)) return true;
-        var star = packageName + ".*";
-        for (var i : readImports(file)) {
-            if (i.equals(className) || i.equals(star)) return true;
-        }
-        return false;
-    }
-
     @Override
     public Iterable<Path> search(String query) {
-        Predicate<Path> test = f -> StringSearch.containsWordMatching(f, query);
-        return () -> FileStore.all().stream().filter(test).iterator();
+        return SymbolIndex.declaring(name -> StringSearch.matchesTitleCase(name, query));
     }
 
     @Override
     public Optional<JavaFileObject> findAnywhere(String className) {
-        var fromDocs = findPublicTypeDeclarationInDocPath(className);
-        if (fromDocs.isPresent()) {
-            return fromDocs;
-        }
-        var fromJdk = findPublicTypeDeclarationInJdk(className);
-        if (fromJdk.isPresent()) {
-            return fromJdk;
+        var fromLibraries = findInLibraries(className);
+        if (fromLibraries.isPresent()) {
+            return fromLibraries;
         }
         var fromSource = findTypeDeclaration(className);
         if (fromSource != NOT_FOUND) {
@@ -238,6 +242,22 @@ class JavaCompilerService implements CompilerProvider {
         return Optional.empty();
     }
 
+    @Override
+    public Optional<DocIndex.Doc> findDocs(String className, String memberName, String[] erasedParameterTypes) {
+        return docIndex.find(className, memberName, erasedParameterTypes);
+    }
+
+    /** The source of className in the doc path or the JDK */
+    private Optional<JavaFileObject> findInLibraries(String className) {
+        synchronized (docs) {
+            var fromDocs = findPublicTypeDeclarationInDocPath(className);
+            if (fromDocs.isPresent()) {
+                return fromDocs;
+            }
+            return findPublicTypeDeclarationInJdk(className);
+        }
+    }
+
     private Optional<JavaFileObject> findPublicTypeDeclarationInDocPath(String className) {
         try {
             var found =
@@ -275,8 +295,9 @@ class JavaCompilerService implements CompilerProvider {
         // If we're spending a lot of time in findTypeDeclaration, this would be a good optimization.
         var packageName = packageName(className);
         var simpleName = simpleName(className);
+        var query = new StringSearch.Words(simpleName);
         for (var f : FileStore.list(packageName)) {
-            if (containsWord(f, simpleName) && containsType(f, className)) {
+            if (containsWord(f, simpleName, query) && containsType(f, className)) {
                 return f;
             }
         }
@@ -285,12 +306,15 @@ class JavaCompilerService implements CompilerProvider {
 
     private Path findPublicTypeDeclaration(String className) {
         JavaFileObject source;
+        compileLock.lock();
         try {
             source =
                     fileManager.getJavaFileForInput(
                             StandardLocation.SOURCE_PATH, className, JavaFileObject.Kind.SOURCE);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            compileLock.unlock();
         }
         if (source == null) return NOT_FOUND;
         if (!source.toUri().getScheme().equals("file")) return NOT_FOUND;
@@ -301,11 +325,11 @@ class JavaCompilerService implements CompilerProvider {
 
     @Override
     public Path[] findTypeReferences(String className) {
-        var packageName = packageName(className);
         var simpleName = simpleName(className);
+        var canSee = DependencyGraph.canSee(className);
         var candidates = new ArrayList<Path>();
-        for (var f : FileStore.all()) {
-            if (containsWord(f, packageName) && containsImport(f, className) && containsWord(f, simpleName)) {
+        for (var f : SymbolIndex.mentioning(simpleName)) {
+            if (canSee.contains(f)) {
                 candidates.add(f);
             }
         }
@@ -314,9 +338,15 @@ class JavaCompilerService implements CompilerProvider {
 
     @Override
     public Path[] findMemberReferences(String className, String memberName) {
+        var mentioning = SymbolIndex.mentioning(memberName);
+        var declaring = findTypeDeclaration(className);
+        // Members of library classes can be used anywhere
+        if (declaring == NOT_FOUND) return mentioning.toArray(Path[]::new);
+        var dependents = DependencyGraph.dependents(declaring);
+        dependents.add(declaring);
         var candidates = new ArrayList<Path>();
-        for (var f : FileStore.all()) {
-            if (containsWord(f, memberName)) {
+        for (var f : mentioning) {
+            if (dependents.contains(f)) {
                 candidates.add(f);
             }
         }
@@ -346,8 +376,44 @@ class JavaCompilerService implements CompilerProvider {
 
     @Override
     public CompileTask compile(Collection<? extends JavaFileObject> sources) {
-        var compile = compileBatch(sources);
-        return new CompileTask(compile.task, compile.roots, diags, compile::close);
+        return compile(sources, true);
+    }
+
+    /**
+     * Compile files without keeping the compilation around for later requests, for background checks of many files
+     * that would otherwise push the compilations of open documents out of the pool.
+     */
+    CompileTask compileOnce(Collection<Path> files) {
+        var sources = new ArrayList<JavaFileObject>();
+        for (var f : files) {
+            sources.add(new SourceFileObject(f));
+        }
+        return compile(sources, false);
+    }
+
+    private CompileTask compile(Collection<? extends JavaFileObject> sources, boolean keep) {
+        if (!compileLock.tryLock()) {
+            onContention.run();
+            compileLock.lock();
+        }
+        CompileBatch compile;
+        try {
+            var cancel = CancelToken.current();
+            compile = pool.get(sources, (compiler, s) -> doCompile(compiler, s, cancel), keep);
+        } catch (RuntimeException e) {
+            compileLock.unlock();
+            throw e;
+        }
+        Runnable close =
+                () -> {
+                    try {
+                        compile.close();
+                        pool.closed(compile);
+                    } finally {
+                        compileLock.unlock();
+                    }
+                };
+        return new CompileTask(compile.task, compile.roots, compile.diags, close);
     }
 
     private static final Logger LOG = Logger.getLogger("main");
@@ -9,10 +9,15 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.lang.model.element.*;
 import org.javacs.action.CodeActionProvider;
 import org.javacs.completion.CompletionProvider;
+import org.javacs.completion.MemberCache;
 import org.javacs.completion.SignatureProvider;
 import org.javacs.fold.FoldProvider;
 import org.javacs.hover.HoverProvider;
@@ -30,19 +35,79 @@ class JavaLanguageServer extends LanguageServer {
     private Path workspaceRoot;
     private final LanguageClient client;
     private JavaCompilerService cacheCompiler;
+    /** The settings of the newest compiler, which may still be being created in the background */
     private JsonObject cacheSettings;
     private JsonObject settings = new JsonObject();
-    private boolean modifiedBuild = true;
+    private volatile boolean modifiedBuild = true;
 
-    JavaCompilerService compiler() {
-        if (needsCompiler()) {
-            cacheCompiler = createCompiler();
-            cacheSettings = settings;
+    /**
+     * Creates replacement compilers, and re-infers the class path when the build files have changed, while requests
+     * are still being answered by the old compiler.
+     */
+    private final ExecutorService background = Executors.newSingleThreadExecutor(JavaLanguageServer::daemon);
+
+    private Future<?> recreate, reinfer;
+
+    private static Thread daemon(Runnable r) {
+        var t = new Thread(r, "configure-compiler");
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** Lints open documents in the background, shortly after they are edited, and checks closed files if enabled */
+    private final LintScheduler lints = new LintScheduler(Duration.ofMillis(200), this::lint, this::check);
+
+    /** Whether closed files are checked in the background, so errors show up in files nobody has opened */
+    private volatile boolean checkWorkspace;
+
+    /** By default, checking the workspace uses at most a quarter of one CPU */
+    private static final double DEFAULT_CHECK_WORKSPACE_CPU = 0.25;
+
+    /** Wait for background lints to finish, so tests can tell which diagnostics came from what they did */
+    void awaitLints() {
+        try {
+            lints.awaitIdle();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The current compiler. The first compiler is created by the first request that needs it. After that, when the
+     * settings or the build change, a replacement is created in the background and this keeps returning the old one
+     * until the replacement is ready.
+     */
+    synchronized JavaCompilerService compiler() {
+        if (cacheCompiler == null) {
+            var snapshot = settings;
             modifiedBuild = false;
+            cacheCompiler = createCompiler(snapshot, true);
+            cacheSettings = snapshot;
+        } else if (needsCompiler() && (recreate == null || recreate.isDone())) {
+            var snapshot = settings;
+            modifiedBuild = false;
+            cacheSettings = snapshot;
+            recreate = background.submit(() -> recreateCompiler(snapshot));
         }
         return cacheCompiler;
     }
 
+    private void recreateCompiler(JsonObject snapshot) {
+        try {
+            var replacement = createCompiler(snapshot, false);
+            synchronized (this) {
+                cacheCompiler = replacement;
+            }
+            // The old compiler's contexts are garbage now, so don't let cached member tables keep them alive
+            MemberCache.clear();
+            LOG.info("...replaced compiler");
+            // The class path might have changed, so every file might have different errors
+            if (checkWorkspace) checkAll();
+        } catch (RuntimeException e) {
+            LOG.log(Level.SEVERE, "Failed to re-create compiler", e);
+        }
+    }
+
     private boolean needsCompiler() {
         if (modifiedBuild) {
             return true;
@@ -61,14 +126,86 @@ class JavaLanguageServer extends LanguageServer {
         try (var task = compiler().compile(files.toArray(Path[]::new))) {
             var compiled = Instant.now();
             LOG.info("...compiled in " + Duration.between(started, compiled).toMillis() + " ms");
-            for (var errs : new ErrorProvider(task).errors()) {
-                client.publishDiagnostics(errs);
-            }
-            for (var colors : new ColorProvider(task).colors()) {
-                client.customNotification("java/colors", GSON.toJsonTree(colors));
-            }
+            var errors = new ErrorProvider(task).errors();
+            var colors = new ColorProvider(task).colors();
+            client.batch(
+                    () -> {
+                        for (var errs : errors) {
+                            client.publishDiagnostics(errs);
+                        }
+                        for (var c : colors) {
+                            client.customNotification("java/colors", GSON.toJsonTree(c));
+                        }
+                    });
             var published = Instant.now();
             LOG.info("...published in " + Duration.between(started, published).toMillis() + " ms");
+            recordDependencies(task);
+        }
+    }
+
+    /** Check closed files, and publish their errors like lint(_) does for open documents. */
+    void check(Collection<Path> files) {
+        LOG.info("Check " + files.size() + " workspace files...");
+        try (var task = compiler().compileOnce(files)) {
+            var errors = new ErrorProvider(task).errors();
+            client.batch(
+                    () -> {
+                        for (var errs : errors) {
+                            client.publishDiagnostics(errs);
+                        }
+                    });
+            recordDependencies(task);
+        }
+    }
+
+    /**
+     * Remember what the files in task use, which narrows down searches for references. If the workspace is being checked
+     * and the signature of any file in task changed, check the files that use it again.
+     */
+    private void recordDependencies(CompileTask task) {
+        var changed = DependencyGraph.update(task);
+        if (!checkWorkspace || changed.isEmpty()) return;
+        var compiled = new HashSet<Path>();
+        for (var root : task.roots) {
+            compiled.add(Paths.get(root.getSourceFile().toUri()));
+        }
+        for (var file : changed) {
+            var dependents = DependencyGraph.dependents(file);
+            dependents.removeAll(compiled);
+            if (dependents.isEmpty()) continue;
+            LOG.info("...signature of " + file.getFileName() + " changed, check " + dependents.size() + " dependents");
+            for (var dependent : dependents) {
+                lints.schedule(dependent, LintScheduler.WORKSPACE);
+            }
+        }
+    }
+
+    private void checkAll() {
+        LOG.info("Check all " + FileStore.all().size() + " workspace files in the background");
+        for (var file : FileStore.all()) {
+            lints.schedule(file, LintScheduler.WORKSPACE);
+        }
+    }
+
+    private void configureCheckWorkspace() {
+        var budget = DEFAULT_CHECK_WORKSPACE_CPU;
+        if (settings.has("checkWorkspaceCpu")) {
+            budget = settings.get("checkWorkspaceCpu").getAsDouble();
+        }
+        lints.setWorkspaceBudget(Math.min(1, Math.max(0.01, budget)));
+        var enabled = settings.has("checkWorkspace") && settings.get("checkWorkspace").getAsBoolean();
+        if (enabled == checkWorkspace) return;
+        checkWorkspace = enabled;
+        if (enabled) {
+            checkAll();
+            return;
+        }
+        // Clear the errors of closed files, which nobody will update any more
+        lints.forgetWorkspace();
+        for (var file : DependencyGraph.resolvedFiles()) {
+            if (!FileStore.activeDocuments().contains(file)) {
+                client.publishDiagnostics(new PublishDiagnosticsParams(file.toUri(), List.of()));
+            }
         }
     }
 
@@ -84,36 +221,89 @@ class JavaLanguageServer extends LanguageServer {
         client.customNotification("java/endProgress", JsonNull.INSTANCE);
     }
 
-    private JavaCompilerService createCompiler() {
+    /**
+     * Create a compiler for settings. If allowStale is set and the build files have changed, use the class path that
+     * was inferred last time, and infer a new one in the background, so the first request doesn't wait for the build.
+     */
+    private JavaCompilerService createCompiler(JsonObject settings, boolean allowStale) {
         Objects.requireNonNull(workspaceRoot, "Can't create compiler because workspaceRoot has not been initialized");
 
         javaStartProgress(new JavaStartProgressParams("Configure javac"));
-        javaReportProgress(new JavaReportProgressParams("Finding source roots"));
+        try {
+            javaReportProgress(new JavaReportProgressParams("Finding source roots"));
+
+            var externalDependencies = externalDependencies(settings);
+            var classPath = classPath(settings);
+            var docPath = Set.<Path>of();
+            var addExports = addExports(settings);
+            var budget = compilerMemoryBudget(settings);
+            configureParseCache(settings);
+            // If classpath is not specified by the user, combine inference with user-specified external dependencies
+            if (classPath.isEmpty()) {
+                var infer = new InferConfig(workspaceRoot, externalDependencies);
+                var config = cachedConfig(infer, allowStale);
+                classPath = config.classPath;
+                docPath = config.docPath;
+            }
 
-        var externalDependencies = externalDependencies();
-        var classPath = classPath();
-        var addExports = addExports();
-        // If classpath is specified by the user, don't infer anything
-        if (!classPath.isEmpty()) {
+            javaReportProgress(new JavaReportProgressParams("Scanning class path"));
+            var compiler = new JavaCompilerService(classPath, docPath, addExports, budget);
+            compiler.onContention = lints::yieldToRequest;
+            return compiler;
+        } finally {
             javaEndProgress();
-            return new JavaCompilerService(classPath, Collections.emptySet(), addExports);
         }
-        // Otherwise, combine inference with user-specified external dependencies
-        else {
-            var infer = new InferConfig(workspaceRoot, externalDependencies);
+    }
 
-            javaReportProgress(new JavaReportProgressParams("Inferring class path"));
-            classPath = infer.classPath();
+    /**
+     * Find the class path and doc path that were inferred the last time the build files looked like they do now. If
+     * the build files have changed since then, infer new ones, unless allowStale is set, in which case use the old paths
+     * for now and infer new ones in the background.
+     */
+    private CachedConfig cachedConfig(InferConfig infer, boolean allowStale) {
+        javaReportProgress(new JavaReportProgressParams("Checking build files"));
+        var buildHash = infer.buildHash();
+        var cached = CachedConfig.load(workspaceRoot);
+        var stale = cached.isPresent() && !cached.get().buildHash.equals(buildHash);
+        if (cached.isEmpty() || stale && !allowStale) {
+            var config = infer(infer, buildHash, true);
+            config.save(workspaceRoot);
+            return config;
+        }
+        if (!stale) {
+            LOG.info("Build files haven't changed, using cached class path");
+        } else if (reinfer == null || reinfer.isDone()) {
+            LOG.info("Build files have changed, using stale class path while inferring a new one");
+            var root = workspaceRoot;
+            reinfer = background.submit(() -> reinfer(infer, buildHash, root));
+        }
+        return cached.get();
+    }
+
+    private void reinfer(InferConfig infer, String buildHash, Path root) {
+        try {
+            // A compiler that was re-created in the meantime has already inferred the new paths
+            var saved = CachedConfig.load(root);
+            if (saved.isPresent() && saved.get().buildHash.equals(buildHash)) return;
+            infer(infer, buildHash, false).save(root);
+            LOG.info("...inferred new class path, compiler will be re-created");
+            modifiedBuild = true;
+        } catch (RuntimeException e) {
+            LOG.log(Level.SEVERE, "Failed to infer class path", e);
+        }
+    }
 
-            javaReportProgress(new JavaReportProgressParams("Inferring doc path"));
-            var docPath = infer.buildDocPath();
+    private CachedConfig infer(InferConfig infer, String buildHash, boolean reportProgress) {
+        if (reportProgress) javaReportProgress(new JavaReportProgressParams("Inferring class path"));
+        var classPath = infer.classPath();
 
-            javaEndProgress();
-            return new JavaCompilerService(classPath, docPath, addExports);
-        }
+        if (reportProgress) javaReportProgress(new JavaReportProgressParams("Inferring doc path"));
+        var docPath = infer.buildDocPath();
+
+        return new CachedConfig(buildHash, classPath, docPath);
     }
 
-    private Set<String> externalDependencies() {
+    private Set<String> externalDependencies(JsonObject settings) {
         if (!settings.has("externalDependencies")) return Set.of();
         var array = settings.getAsJsonArray("externalDependencies");
         var strings = new HashSet<String>();
@@ -123,7 +313,7 @@ class JavaLanguageServer extends LanguageServer {
         return strings;
     }
 
-    private Set<Path> classPath() {
+    private Set<Path> classPath(JsonObject settings) {
         if (!settings.has("classPath")) return Set.of();
         var array = settings.getAsJsonArray("classPath");
         var paths = new HashSet<Path>();
@@ -133,7 +323,26 @@ class JavaLanguageServer extends LanguageServer {
         return paths;
     }
 
-    private Set<String> addExports() {
+    private long compilerMemoryBudget(JsonObject settings) {
+        if (!settings.has("compilerMemoryBudget")) return CompilePool.defaultBudget();
+        var megabytes = settings.get("compilerMemoryBudget").getAsLong();
+        return megabytes * 1024 * 1024;
+    }
+
+    private void configureParseCache(JsonObject settings) {
+        var files = Parser.DEFAULT_CACHED_PARSES;
+        var chars = Parser.DEFAULT_CACHED_CHARS;
+        if (settings.has("parseCacheFiles")) {
+            files = settings.get("parseCacheFiles").getAsInt();
+        }
+        if (settings.has("parseCacheMemory")) {
+            var megabytes = settings.get("parseCacheMemory").getAsLong();
+            chars = megabytes * 1024 * 1024 / Parser.BYTES_PER_CHAR;
+        }
+        Parser.setCacheLimit(files, chars);
+    }
+
+    private Set<String> addExports(JsonObject settings) {
         if (!settings.has("addExports")) return Set.of();
         var array = settings.getAsJsonArray("addExports");
         var strings = new HashSet<String>();
@@ -179,16 +388,19 @@ class JavaLanguageServer extends LanguageServer {
         return new InitializeResult(c);
     }
 
-    private static final String[] watchFiles = {
-        "**/*.java", "**/pom.xml", "**/BUILD",
-    };
-
     @Override
     public void initialized() {
-        client.registerCapability("workspace/didChangeWatchedFiles", watchFiles(watchFiles));
+        // Watch every file that InferConfig.isBuildFile accepts, so a change to any of them re-creates the compiler
+        var globPatterns = new ArrayList<String>();
+        globPatterns.add("**/*.java");
+        globPatterns.add("**/*.bzl");
+        for (var name : InferConfig.BUILD_FILES) {
+            globPatterns.add("**/" + name);
+        }
+        client.registerCapability("workspace/didChangeWatchedFiles", watchFiles(globPatterns));
     }
 
-    private JsonObject watchFiles(String... globPatterns) {
+    private JsonObject watchFiles(List<String> globPatterns) {
         var options = new JsonObject();
         var watchers = new JsonArray();
         for (var p : globPatterns) {
@@ -217,6 +429,7 @@ class JavaLanguageServer extends LanguageServer {
         var java = change.settings.getAsJsonObject().get("java");
         LOG.info("Received java settings " + java);
         settings = java.getAsJsonObject();
+        configureCheckWorkspace();
     }
 
     @Override
@@ -227,22 +440,31 @@ class JavaLanguageServer extends LanguageServer {
                 switch (c.type) {
                     case FileChangeType.Created:
                         FileStore.externalCreate(file);
+                        if (checkWorkspace) lints.schedule(file, LintScheduler.WORKSPACE);
                         break;
                     case FileChangeType.Changed:
                         FileStore.externalChange(file);
+                        if (checkWorkspace) lints.schedule(file, LintScheduler.WORKSPACE);
                         break;
                     case FileChangeType.Deleted:
+                        // Find the dependents before the deleted file is dropped from the index
+                        var dependents = checkWorkspace ? DependencyGraph.dependents(file) : Set.<Path>of();
                         FileStore.externalDelete(file);
+                        DependencyGraph.forget(file);
+                        lints.forget(file);
+                        if (checkWorkspace) {
+                            for (var dependent : dependents) {
+                                lints.schedule(dependent, LintScheduler.WORKSPACE);
+                            }
+                            client.publishDiagnostics(new PublishDiagnosticsParams(file.toUri(), List.of()));
+                        }
                         break;
                 }
                 return;
             }
-            var name = file.getFileName().toString();
-            switch (name) {
-                case "BUILD":
-                case "pom.xml":
-                    LOG.info("Compiler needs to be re-created because " + file + " has changed");
-                    modifiedBuild = true;
+            if (InferConfig.isBuildFile(file)) {
+                LOG.info("Compiler needs to be re-created because " + file + " has changed");
+                modifiedBuild = true;
             }
         }
     }
@@ -471,22 +693,18 @@ class JavaLanguageServer extends LanguageServer {
         return new RenameVariable(file, (int) position, newName);
     }
 
-    private boolean uncheckedChanges = false;
-    private Path lastEdited = Paths.get("");
-
     @Override
     public void didOpenTextDocument(DidOpenTextDocumentParams params) {
         FileStore.open(params);
         if (!FileStore.isJavaFile(params.textDocument.uri)) return;
-        lastEdited = Paths.get(params.textDocument.uri);
-        uncheckedChanges = true;
+        lints.schedule(Paths.get(params.textDocument.uri), LintScheduler.EDITING);
     }
 
     @Override
     public void didChangeTextDocument(DidChangeTextDocumentParams params) {
         FileStore.change(params);
-        lastEdited = Paths.get(params.textDocument.uri);
-        uncheckedChanges = true;
+        if (!FileStore.isJavaFile(params.textDocument.uri)) return;
+        lints.schedule(Paths.get(params.textDocument.uri), LintScheduler.EDITING);
     }
 
     @Override
@@ -494,8 +712,15 @@ class JavaLanguageServer extends LanguageServer {
         FileStore.close(params);
 
         if (FileStore.isJavaFile(params.textDocument.uri)) {
-            // Clear diagnostics
-            client.publishDiagnostics(new PublishDiagnosticsParams(params.textDocument.uri, List.of()));
+            var file = Paths.get(params.textDocument.uri);
+            lints.forget(file);
+            if (checkWorkspace) {
+                // The version on disk might be different from the version that was open
+                lints.schedule(file, LintScheduler.WORKSPACE);
+            } else {
+                // Clear diagnostics
+                client.publishDiagnostics(new PublishDiagnosticsParams(params.textDocument.uri, List.of()));
+            }
         }
     }
 
@@ -512,16 +737,11 @@ class JavaLanguageServer extends LanguageServer {
     @Override
     public void didSaveTextDocument(DidSaveTextDocumentParams params) {
         if (FileStore.isJavaFile(params.textDocument.uri)) {
-            // Re-lint all active documents
-            lint(FileStore.activeDocuments());
-        }
-    }
-
-    @Override
-    public void doAsyncWork() {
-        if (uncheckedChanges && FileStore.activeDocuments().contains(lastEdited)) {
-            lint(List.of(lastEdited));
-            uncheckedChanges = false;
+            // Re-lint all active documents, because they might depend on the saved one
+            var saved = Paths.get(params.textDocument.uri);
+            for (var file : FileStore.activeDocuments()) {
+                lints.schedule(file, file.equals(saved) ? LintScheduler.EDITING : LintScheduler.OTHER);
+            }
         }
     }
 
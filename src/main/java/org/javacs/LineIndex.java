@@ -0,0 +1,57 @@
+package org.javacs;
+
+import com.sun.source.tree.LineMap;
+import java.util.Arrays;
+
+/**
+ * LineIndex records where each line of a text starts, so converting between line/column and offset is a table lookup
+ * or a binary search instead of a scan from the start of the text. Like javac's own LineMap, lines and columns are
+ * 1-based and offsets are 0-based. Lines end with \n or \r\n.
+ */
+public final class LineIndex implements LineMap {
+    /** starts[i] is the offset of the first character of line i + 1 */
+    private final int[] starts;
+
+    private LineIndex(int[] starts) {
+        this.starts = starts;
+    }
+
+    public static LineIndex of(CharSequence text) {
+        var starts = new int[64];
+        var count = 1;
+        for (var i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                starts[count++] = i + 1;
+            }
+        }
+        return new LineIndex(Arrays.copyOf(starts, count));
+    }
+
+    public int lineCount() {
+        return starts.length;
+    }
+
+    @Override
+    public long getStartPosition(long line) {
+        return starts[(int) line - 1];
+    }
+
+    @Override
+    public long getPosition(long line, long column) {
+        return starts[(int) line - 1] + column - 1;
+    }
+
+    @Override
+    public long getLineNumber(long pos) {
+        var found = Arrays.binarySearch(starts, (int) pos);
+        // If pos isn't the start of a line, binarySearch returns -(the line after pos) - 1
+        if (found < 0) found = -found - 2;
+        return found + 1;
+    }
+
+    @Override
+    public long getColumnNumber(long pos) {
+        return pos - getStartPosition(getLineNumber(pos)) + 1;
+    }
+}
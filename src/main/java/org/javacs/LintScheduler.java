@@ -0,0 +1,286 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.javacs.lsp.CancelToken;
+
+/**
+ * LintScheduler lints documents on a background thread, a short while after they were last edited, so a burst of edits
+ * is linted once and linting never holds up a request. Documents the user is editing are linted before the rest. A
+ * lint that is still running when its document is edited again, or when a request needs the compiler, is cancelled
+ * and tried again later.
+ *
+ * <p>Closed files can also be checked, in batches of at most BATCH_SIZE files, after all open documents. Between
+ * batches the scheduler rests long enough that checking the workspace stays within a fraction of one CPU.
+ */
+class LintScheduler {
+    /** The document the user is editing goes first */
+    static final int EDITING = 0;
+
+    /** Other open documents, which are re-linted because something they depend on might have changed */
+    static final int OTHER = 1;
+
+    /** Closed files in the workspace, which are checked whenever there is nothing more urgent to do */
+    static final int WORKSPACE = 2;
+
+    /** The most files that are compiled together */
+    static final int BATCH_SIZE = 50;
+
+    static class Metrics {
+        /** Number of times the document has been linted */
+        long count;
+        /** Total time between the first edit that needed a lint and the lint finishing */
+        long totalNanos;
+        /** Longest time between an edit and the lint finishing */
+        long maxNanos;
+
+        Duration averageLatency() {
+            if (count == 0) return Duration.ZERO;
+            return Duration.ofNanos(totalNanos / count);
+        }
+
+        Duration maxLatency() {
+            return Duration.ofNanos(maxNanos);
+        }
+    }
+
+    private static class Pending {
+        int priority;
+        /** When the document was first scheduled, since it was last linted */
+        long scheduled;
+        /** When the document can be linted, if it isn't scheduled again before then */
+        long due;
+
+        Pending(int priority, long scheduled, long due) {
+            this.priority = priority;
+            this.scheduled = scheduled;
+            this.due = due;
+        }
+    }
+
+    private final long debounceNanos;
+    private final Consumer<List<Path>> lint, check;
+    private final Map<Path, Pending> pending = new HashMap<>();
+    private final Map<Path, Metrics> metrics = new HashMap<>();
+
+    /** The lint that is running right now, and the documents it is linting */
+    private CancelToken running;
+
+    private Map<Path, Pending> linting = Map.of();
+
+    /** The fraction of one CPU that checking the workspace may use */
+    private double budget = 1;
+
+    /** Workspace files aren't checked again until restUntil, so checking them stays within budget */
+    private long restUntil;
+
+    private final Thread thread;
+
+    /** Lint documents on a new thread using lint(_), once they haven't been scheduled again for debounce. */
+    LintScheduler(Duration debounce, Consumer<List<Path>> lint) {
+        this(debounce, lint, lint);
+    }
+
+    /** Like LintScheduler(debounce, lint), but check(_) is used for files scheduled with priority WORKSPACE. */
+    LintScheduler(Duration debounce, Consumer<List<Path>> lint, Consumer<List<Path>> check) {
+        this.debounceNanos = debounce.toNanos();
+        this.lint = lint;
+        this.check = check;
+        this.thread = new Thread(this::loop, "lint");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** Lint file after the debounce period, unless it is scheduled again before then. */
+    synchronized void schedule(Path file, int priority) {
+        var now = System.nanoTime();
+        var existing = pending.get(file);
+        if (existing != null) {
+            existing.priority = Math.min(existing.priority, priority);
+            existing.due = now + debounceNanos;
+        } else {
+            pending.put(file, new Pending(priority, now, now + debounceNanos));
+        }
+        // If file is being linted right now, the result will be out-of-date anyway
+        if (linting.containsKey(file)) {
+            running.cancel();
+        }
+        notifyAll();
+    }
+
+    /** Stop waiting to lint file, for example because it was closed, and drop its metrics. */
+    synchronized void forget(Path file) {
+        pending.remove(file);
+        metrics.remove(file);
+        notifyAll();
+    }
+
+    /** Stop waiting to check workspace files, for example because workspace checking was turned off. */
+    synchronized void forgetWorkspace() {
+        pending.values().removeIf(p -> p.priority == WORKSPACE);
+        notifyAll();
+    }
+
+    /** Wait until every scheduled file has been linted, for tests that need to know no diagnostics are on the way. */
+    synchronized void awaitIdle() throws InterruptedException {
+        while (!pending.isEmpty() || running != null) {
+            wait();
+        }
+    }
+
+    /** Limit checking the workspace to roughly fraction of one CPU, between 0 (exclusive) and 1. */
+    synchronized void setWorkspaceBudget(double fraction) {
+        if (fraction <= 0 || fraction > 1) throw new IllegalArgumentException("budget " + fraction);
+        budget = fraction;
+    }
+
+    /**
+     * Cancel the running lint, because a request is waiting for the compiler. The lint will be tried again later. Does
+     * nothing when called from the lint itself.
+     */
+    synchronized void yieldToRequest() {
+        if (running != null && running != CancelToken.current() && !running.isCancelled()) {
+            LOG.info("...cancelling lint so a request can use the compiler");
+            running.cancel();
+        }
+    }
+
+    synchronized Metrics metrics(Path file) {
+        return metrics.computeIfAbsent(file, __ -> new Metrics());
+    }
+
+    private void loop() {
+        while (true) {
+            try {
+                var batch = next();
+                run(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+    }
+
+    /** Wait until some documents are due, then take the most urgent ones. */
+    private synchronized Map<Path, Pending> next() throws InterruptedException {
+        while (true) {
+            var now = System.nanoTime();
+            var wait = Long.MAX_VALUE;
+            var priority = Integer.MAX_VALUE;
+            for (var p : pending.values()) {
+                var due = p.priority == WORKSPACE ? Math.max(p.due, restUntil) : p.due;
+                if (due <= now) {
+                    priority = Math.min(priority, p.priority);
+                } else {
+                    wait = Math.min(wait, due - now);
+                }
+            }
+            if (priority != Integer.MAX_VALUE) {
+                var batch = new HashMap<Path, Pending>();
+                for (var it = pending.entrySet().iterator(); it.hasNext() && batch.size() < BATCH_SIZE; ) {
+                    var next = it.next();
+                    if (next.getValue().due <= now && next.getValue().priority == priority) {
+                        batch.put(next.getKey(), next.getValue());
+                        it.remove();
+                    }
+                }
+                running = new CancelToken();
+                linting = batch;
+                return batch;
+            }
+            if (wait == Long.MAX_VALUE) {
+                wait();
+            } else {
+                wait(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+        }
+    }
+
+    private void run(Map<Path, Pending> batch) {
+        var workspace = batch.values().iterator().next().priority == WORKSPACE;
+        var files = new ArrayList<Path>();
+        for (var file : batch.keySet()) {
+            // Documents that were closed while they were waiting don't need to be linted, unless the whole workspace is
+            // being checked, in which case files that were deleted while they were waiting don't need to be checked
+            if (FileStore.activeDocuments().contains(file) || workspace && FileStore.contains(file)) {
+                files.add(file);
+            }
+        }
+        CancelToken token;
+        synchronized (this) {
+            token = running;
+        }
+        var finished = false;
+        var started = System.nanoTime();
+        try {
+            if (!files.isEmpty()) {
+                var consumer = workspace ? check : lint;
+                CancelToken.run(token, () -> consumer.accept(files));
+            }
+            finished = true;
+        } catch (CancellationException e) {
+            LOG.info("...lint was cancelled, will try again");
+        } catch (RuntimeException e) {
+            // Trying again would most likely fail the same way, so give up until the files are scheduled again
+            LOG.log(Level.SEVERE, "Lint failed", e);
+            finished = true;
+        } finally {
+            done(batch, finished, workspace, started);
+        }
+    }
+
+    private synchronized void done(Map<Path, Pending> batch, boolean finished, boolean workspace, long started) {
+        running = null;
+        linting = Map.of();
+        var now = System.nanoTime();
+        if (workspace) {
+            // Rest for long enough that the time spent checking is budget of the total time
+            var rest = (long) ((now - started) * (1 - budget) / budget);
+            restUntil = now + rest;
+            if (finished) {
+                LOG.info(
+                        String.format(
+                                "...checked %d workspace files in %,d ms, resting for %,d ms",
+                                batch.size(),
+                                Duration.ofNanos(now - started).toMillis(),
+                                Duration.ofNanos(rest).toMillis()));
+            }
+        }
+        for (var file : batch.keySet()) {
+            var p = batch.get(file);
+            if (!finished) {
+                // Try again after another debounce period, or whenever the document has been rescheduled for
+                var again = pending.get(file);
+                if (again == null) {
+                    pending.put(file, new Pending(p.priority, p.scheduled, now + debounceNanos));
+                } else {
+                    again.priority = Math.min(again.priority, p.priority);
+                    again.scheduled = Math.min(again.scheduled, p.scheduled);
+                }
+                continue;
+            }
+            // Latency only matters for documents the user can see
+            if (workspace) continue;
+            var m = metrics(file);
+            var elapsed = now - p.scheduled;
+            m.count++;
+            m.totalNanos += elapsed;
+            m.maxNanos = Math.max(m.maxNanos, elapsed);
+            LOG.info(
+                    String.format(
+                            "...linted %s %,d ms after it was edited (average %,d ms)",
+                            file.getFileName(),
+                            Duration.ofNanos(elapsed).toMillis(),
+                            m.averageLatency().toMillis()));
+        }
+        notifyAll();
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
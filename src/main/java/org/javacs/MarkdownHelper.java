@@ -27,7 +27,10 @@ import org.xml.sax.SAXException;
 public class MarkdownHelper {
 
     public static MarkupContent asMarkupContent(DocCommentTree comment) {
-        var markdown = asMarkdown(comment);
+        return asMarkupContent(asMarkdown(comment));
+    }
+
+    public static MarkupContent asMarkupContent(String markdown) {
         var content = new MarkupContent();
         content.kind = MarkupKind.Markdown;
         content.value = markdown;
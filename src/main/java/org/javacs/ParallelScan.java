@@ -0,0 +1,100 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.javacs.lsp.CancelToken;
+
+/**
+ * ParallelScan runs a function over many files on a shared pool with one thread per core, so scans of the whole
+ * workspace use every core. Results come back in the same order as the files, and the function runs under the
+ * CancelToken of the thread that started the scan, so cancelling a request stops all its workers.
+ */
+public class ParallelScan {
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Each thread gets about this many chunks, so threads that finish early can take work from slow ones */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(THREADS, ParallelScan::worker, null, false);
+
+    private static ForkJoinWorkerThread worker(ForkJoinPool pool) {
+        var t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("scan-" + t.getPoolIndex());
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** f(file) for each file, in the same order as files. */
+    public static <T> List<T> map(List<Path> files, Function<Path, T> f) {
+        var cancel = CancelToken.current();
+        var results = new ArrayList<T>(Collections.nCopies(files.size(), null));
+        // Small scans, and scans started by a worker, aren't worth splitting up
+        if (files.size() < 2 || ForkJoinTask.inForkJoinPool()) {
+            for (var i = 0; i < files.size(); i++) {
+                cancel.check();
+                results.set(i, f.apply(files.get(i)));
+            }
+            return results;
+        }
+        var chunkSize = Math.max(1, files.size() / (THREADS * CHUNKS_PER_THREAD));
+        // ForkJoinTask.get() wraps exceptions in copies, so remember the original to rethrow it
+        var failed = new AtomicReference<Throwable>();
+        var chunks = new ArrayList<Callable<Void>>();
+        for (var start = 0; start < files.size(); start += chunkSize) {
+            var from = start;
+            var until = Math.min(files.size(), start + chunkSize);
+            chunks.add(
+                    () -> {
+                        try {
+                            CancelToken.run(
+                                    cancel,
+                                    () -> {
+                                        for (var i = from; i < until && failed.get() == null; i++) {
+                                            cancel.check();
+                                            results.set(i, f.apply(files.get(i)));
+                                        }
+                                    });
+                        } catch (RuntimeException | Error e) {
+                            failed.compareAndSet(null, e);
+                        }
+                        return null;
+                    });
+        }
+        POOL.invokeAll(chunks);
+        var e = failed.get();
+        if (e instanceof RuntimeException) throw (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+        return results;
+    }
+
+    /** The files that pass test, in the same order as files. */
+    public static List<Path> filter(List<Path> files, Predicate<Path> test) {
+        var passed = map(files, test::test);
+        var found = new ArrayList<Path>();
+        for (var i = 0; i < files.size(); i++) {
+            if (passed.get(i)) {
+                found.add(files.get(i));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Pass f(file) to consume for each file, in the same order as files, until consume returns false. Files are
+     * processed a window at a time, with a few files per thread in each window, so when consume asks to stop, at most
+     * one window of work has been wasted.
+     */
+    public static <T> void scan(List<Path> files, Function<Path, T> f, Predicate<T> consume) {
+        var window = THREADS * CHUNKS_PER_THREAD;
+        for (var start = 0; start < files.size(); start += window) {
+            var until = Math.min(files.size(), start + window);
+            for (var result : map(files.subList(start, until), f)) {
+                if (!consume.test(result)) return;
+            }
+        }
+    }
+}
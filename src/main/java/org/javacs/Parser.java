@@ -13,15 +13,21 @@ import javax.lang.model.element.*;
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
 import org.javacs.lsp.*;
+import org.javacs.markup.RangeHelper;
 
 class Parser {
     private static final JavaCompiler COMPILER = ServiceLoader.load(JavaCompiler.class).iterator().next();
     private static final SourceFileManager FILE_MANAGER = new SourceFileManager();
 
+    /** javac's file managers aren't thread-safe, so each thread that parses gets its own */
+    private static final ThreadLocal<SourceFileManager> PARSE_FILE_MANAGER =
+            ThreadLocal.withInitial(SourceFileManager::new);
+
     /** Create a task that compiles a single file */
     private static JavacTask singleFileTask(JavaFileObject file) {
         return (JavacTask)
-                COMPILER.getTask(null, FILE_MANAGER, Parser::ignoreError, List.of(), List.of(), List.of(file));
+                COMPILER.getTask(
+                        null, PARSE_FILE_MANAGER.get(), Parser::ignoreError, List.of(), List.of(), List.of(file));
     }
 
     final JavaFileObject file;
@@ -50,28 +56,91 @@ class Parser {
         return parseJavaFileObject(new SourceFileObject(file));
     }
 
-    private static Parser cachedParse;
-    private static long cachedModified = -1;
+    /** Recent parses in least-recently-used order, keyed by file. Each one remembers the modified time it parsed. */
+    private static final LinkedHashMap<JavaFileObject, Parser> cachedParses = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final Map<JavaFileObject, Long> cachedModified = new HashMap<>();
+
+    /** Rough cost of the trees and line map Parser keeps per character of source it parses. */
+    static final long BYTES_PER_CHAR = 85;
+
+    static final int DEFAULT_CACHED_PARSES = 200;
+
+    /** Roughly 85 MB of parses */
+    static final long DEFAULT_CACHED_CHARS = 1_000_000;
+
+    /** The cache holds at most maxCachedParses files, with at most maxCachedChars characters of source in total. */
+    private static int maxCachedParses = DEFAULT_CACHED_PARSES;
+
+    private static long maxCachedChars = DEFAULT_CACHED_CHARS, cachedChars;
+
+    private static long hits, misses;
+
+    /** Limit how many parses are cached, by number of files and total size of their sources. */
+    static synchronized void setCacheLimit(int maxParses, long maxChars) {
+        maxCachedParses = maxParses;
+        maxCachedChars = maxChars;
+        evict();
+    }
 
-    private static boolean needsParse(JavaFileObject file) {
-        if (cachedParse == null) return true;
-        if (!cachedParse.file.equals(file)) return true;
-        if (file.getLastModified() > cachedModified) return true;
+    private static boolean needsParse(JavaFileObject file, long modified) {
+        var cached = cachedModified.get(file);
+        if (cached == null) return true;
+        if (modified != cached) return true;
         return false;
     }
 
-    private static void loadParse(JavaFileObject file) {
-        cachedParse = new Parser(file);
-        cachedModified = file.getLastModified();
+    private static void putParse(JavaFileObject file, long modified, Parser parse) {
+        var previous = cachedParses.put(file, parse);
+        if (previous != null) cachedChars -= previous.contents.length();
+        cachedChars += parse.contents.length();
+        cachedModified.put(file, modified);
+        evict();
     }
 
+    /** Evict the least-recently-used parses until the cache fits in its limits, but always keep the newest one. */
+    private static void evict() {
+        var it = cachedParses.entrySet().iterator();
+        while (cachedParses.size() > 1
+                && (cachedParses.size() > maxCachedParses || cachedChars > maxCachedChars)) {
+            var next = it.next();
+            it.remove();
+            cachedModified.remove(next.getKey());
+            cachedChars -= next.getValue().contents.length();
+        }
+    }
+
+    /** Parse file without caching the result, for callers that look at each file once. Safe to call from any thread. */
+    static Parser parseUncached(JavaFileObject file) {
+        return new Parser(file);
+    }
+
+    /**
+     * Parse file, or reuse the cached parse if file hasn't been modified since. The parse itself happens outside the
+     * cache lock, so several threads can parse different files at once.
+     */
     static Parser parseJavaFileObject(JavaFileObject file) {
-        if (needsParse(file)) {
-            loadParse(file);
-        } else {
-            LOG.info("...using cached parse");
+        // Read the modified time before the contents, so if file changes while we parse, the next call parses again
+        var modified = file.getLastModified();
+        synchronized (Parser.class) {
+            if (!needsParse(file, modified)) {
+                hits++;
+                LOG.info("...using cached parse");
+                return cachedParses.get(file);
+            }
+            misses++;
+        }
+        var parse = new Parser(file);
+        synchronized (Parser.class) {
+            putParse(file, modified, parse);
         }
-        return cachedParse;
+        return parse;
+    }
+
+    /** A summary of how well the parse cache is working, for logging */
+    static synchronized String cacheStats() {
+        return String.format(
+                "%,d parses of %,d chars cached, %,d hits, %,d misses", cachedParses.size(), cachedChars, hits, misses);
     }
 
     Set<Name> packagePrivateClasses() {
@@ -93,7 +162,6 @@ class Parser {
         var trees = Trees.instance(task);
         var pos = trees.getSourcePositions();
         var root = path.getCompilationUnit();
-        var lines = root.getLineMap();
         var start = (int) pos.getStartPosition(root, path.getLeaf());
         var end = (int) pos.getEndPosition(root, path.getLeaf());
 
@@ -168,13 +236,7 @@ class Parser {
             }
             end = start + name.length();
         }
-        var startLine = (int) lines.getLineNumber(start);
-        var startCol = (int) lines.getColumnNumber(start);
-        var endLine = (int) lines.getLineNumber(end);
-        var endCol = (int) lines.getColumnNumber(end);
-        var range = new Range(new Position(startLine - 1, startCol - 1), new Position(endLine - 1, endCol - 1));
-
-        return range;
+        return RangeHelper.range(root, start, end);
     }
 
     private static int indexOf(CharSequence contents, String name, int start) {
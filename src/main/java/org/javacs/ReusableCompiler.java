@@ -53,6 +53,7 @@ import javax.tools.Diagnostic;
 import javax.tools.DiagnosticListener;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
+import org.javacs.completion.MemberCache;
 
 /**
  * A pool of reusable JavacTasks. When a task is no valid anymore, it is returned to the pool, and its Context may be
@@ -84,6 +85,11 @@ class ReusableCompiler {
     private ReusableContext currentContext;
     private boolean checkedOut;
 
+    /** Whether a task has been handed out by getTask(...) and not yet closed. */
+    boolean inUse() {
+        return checkedOut;
+    }
+
     /**
      * Creates a new task as if by {@link javax.tools.JavaCompiler#getTask} and runs the provided worker with it. The
      * task is only valid while the worker is running. The internal structures may be reused from some previous
@@ -117,6 +123,7 @@ class ReusableCompiler {
             LOG.warning(String.format("Options changed from %s to %s, creating new compiler", options, opts));
             currentOptions = opts;
             currentContext = new ReusableContext(opts);
+            MemberCache.clear();
         }
         JavacTaskImpl task =
                 (JavacTaskImpl)
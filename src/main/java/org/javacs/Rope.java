@@ -0,0 +1,274 @@
+package org.javacs;
+
+import java.io.Reader;
+import java.util.ArrayDeque;
+
+/**
+ * Rope is an immutable text, stored as a balanced tree of small chunks. Editing a rope shares every chunk the edit
+ * doesn't touch with the original, so an edit costs O(log n) instead of a copy of the whole document. Each node counts
+ * the newlines beneath it, so line/character positions can be found without scanning the text.
+ */
+final class Rope implements CharSequence {
+    /** Chunks are at most this long, so splitting one is cheap */
+    static final int MAX_LEAF = 1024;
+
+    static final Rope EMPTY = new Rope("");
+
+    /** If this is a leaf, leaf holds its text and left and right are null */
+    private final String leaf;
+
+    private final Rope left, right;
+    private final int length, newlines, height;
+
+    /** The text of this rope, once someone has asked for it as a String */
+    private volatile String flat;
+
+    private Rope(String leaf) {
+        this.leaf = leaf;
+        this.left = null;
+        this.right = null;
+        this.length = leaf.length();
+        this.newlines = countNewlines(leaf);
+        this.height = 0;
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.leaf = null;
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+        this.newlines = left.newlines + right.newlines;
+        this.height = 1 + Math.max(left.height, right.height);
+    }
+
+    private static int countNewlines(String text) {
+        var count = 0;
+        for (var i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+
+    /** A balanced rope holding text. */
+    static Rope of(String text) {
+        if (text.isEmpty()) return EMPTY;
+        return build(text, 0, text.length());
+    }
+
+    private static Rope build(String text, int start, int end) {
+        if (end - start <= MAX_LEAF) {
+            return new Rope(text.substring(start, end));
+        }
+        // Split on a chunk boundary, so every leaf except the last one is full
+        var chunks = (end - start + MAX_LEAF - 1) / MAX_LEAF;
+        var mid = start + (chunks / 2) * MAX_LEAF;
+        return new Rope(build(text, start, mid), build(text, mid, end));
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /** The number of lines, which is one more than the number of newlines. */
+    int lineCount() {
+        return newlines + 1;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        var node = this;
+        while (node.leaf == null) {
+            if (index < node.left.length) {
+                node = node.left;
+            } else {
+                index -= node.left.length;
+                node = node.right;
+            }
+        }
+        return node.leaf.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return slice(start, end).toString();
+    }
+
+    /** The text between start and end, as a rope that shares chunks with this one. */
+    Rope slice(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") is not inside [0, " + length + ")");
+        }
+        return take(end).drop(start);
+    }
+
+    /** Convert line and character (0-based) to an offset (0-based). Positions past the end of a line are clamped. */
+    int offset(int line, int character) {
+        if (line < 0) return 0;
+        if (line > newlines) return length;
+        var start = lineStart(line);
+        var end = line < newlines ? lineStart(line + 1) - 1 : length;
+        return Math.min(start + Math.max(character, 0), end);
+    }
+
+    /** The offset of the first character of line, where 0 <= line <= newlines. */
+    private int lineStart(int line) {
+        if (line == 0) return 0;
+        var offset = 0;
+        var node = this;
+        while (node.leaf == null) {
+            if (line <= node.left.newlines) {
+                node = node.left;
+            } else {
+                offset += node.left.length;
+                line -= node.left.newlines;
+                node = node.right;
+            }
+        }
+        for (var i = 0; ; i++) {
+            if (node.leaf.charAt(i) == '\n' && --line == 0) {
+                return offset + i + 1;
+            }
+        }
+    }
+
+    /** Replace the text between start and end with text. */
+    Rope replace(int start, int end, String text) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") is not inside [0, " + length + ")");
+        }
+        return join(join(take(start), of(text)), drop(end));
+    }
+
+    /** The first n characters of this rope. */
+    private Rope take(int n) {
+        if (n <= 0) return EMPTY;
+        if (n >= length) return this;
+        if (leaf != null) return new Rope(leaf.substring(0, n));
+        if (n <= left.length) return left.take(n);
+        return join(left, right.take(n - left.length));
+    }
+
+    /** Everything except the first n characters of this rope. */
+    private Rope drop(int n) {
+        if (n <= 0) return this;
+        if (n >= length) return EMPTY;
+        if (leaf != null) return new Rope(leaf.substring(n));
+        if (n >= left.length) return right.drop(n - left.length);
+        return join(left.drop(n), right);
+    }
+
+    /** Concatenate a and b, keeping the tree balanced. This costs O(difference in height of a and b). */
+    private static Rope join(Rope a, Rope b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        if (a.height > b.height + 1) {
+            return balance(a.left, join(a.right, b));
+        }
+        if (b.height > a.height + 1) {
+            return balance(join(a, b.left), b.right);
+        }
+        // Merge small neighbors, so a long series of single-character edits doesn't shred the text into tiny leaves
+        if (a.leaf != null && b.leaf != null && a.length + b.length <= MAX_LEAF) {
+            return new Rope(a.leaf + b.leaf);
+        }
+        return new Rope(a, b);
+    }
+
+    /** Create a node from left and right, whose heights differ by at most 2, rotating it so they differ by at most 1. */
+    private static Rope balance(Rope left, Rope right) {
+        if (left.height > right.height + 1) {
+            if (left.left.height >= left.right.height) {
+                return new Rope(left.left, new Rope(left.right, right));
+            }
+            var middle = left.right;
+            return new Rope(new Rope(left.left, middle.left), new Rope(middle.right, right));
+        }
+        if (right.height > left.height + 1) {
+            if (right.right.height >= right.left.height) {
+                return new Rope(new Rope(left, right.left), right.right);
+            }
+            var middle = right.left;
+            return new Rope(new Rope(left, middle.left), new Rope(middle.right, right.right));
+        }
+        return new Rope(left, right);
+    }
+
+    /** Read this rope one chunk at a time, without copying it into a single String. */
+    Reader reader() {
+        return new RopeReader(this);
+    }
+
+    private static class RopeReader extends Reader {
+        /** Subtrees that haven't been read yet, leftmost on top */
+        private final ArrayDeque<Rope> pending = new ArrayDeque<>();
+
+        private String chunk = "";
+        private int position;
+
+        RopeReader(Rope root) {
+            pending.push(root);
+        }
+
+        /** Move to the next non-empty chunk, or return false if there are no more. */
+        private boolean advance() {
+            while (position == chunk.length()) {
+                if (pending.isEmpty()) return false;
+                var next = pending.pop();
+                while (next.leaf == null) {
+                    pending.push(next.right);
+                    next = next.left;
+                }
+                chunk = next.leaf;
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!advance()) return -1;
+            return chunk.charAt(position++);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) {
+            if (count == 0) return 0;
+            if (!advance()) return -1;
+            var n = Math.min(count, chunk.length() - position);
+            chunk.getChars(position, position + n, buffer, offset);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    @Override
+    public String toString() {
+        if (leaf != null) return leaf;
+        var result = flat;
+        if (result == null) {
+            var buffer = new StringBuilder(length);
+            appendTo(buffer);
+            result = buffer.toString();
+            flat = result;
+        }
+        return result;
+    }
+
+    private void appendTo(StringBuilder buffer) {
+        if (leaf != null) {
+            buffer.append(leaf);
+        } else if (flat != null) {
+            buffer.append(flat);
+        } else {
+            left.appendTo(buffer);
+            right.appendTo(buffer);
+        }
+    }
+}
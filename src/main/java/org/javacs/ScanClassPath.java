@@ -1,20 +1,20 @@
 package org.javacs;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.function.Function;
+import java.nio.file.*;
+import java.util.*;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import org.javacs.guava.ClassPath;
 
+/**
+ * ScanClassPath finds the top-level classes in the JDK and on the class path. Scanning hundreds of jars takes seconds,
+ * so the class names found in each jar, and in the JDK, are saved to disk and reused until the jar or JDK changes.
+ */
 class ScanClassPath {
 
     /** All exported modules that are present in JDK 10 or 11 */
@@ -111,47 +111,142 @@ class ScanClassPath {
         "jdk.zipfs",
     };
 
-    static Set<String> jdkTopLevelClasses() {
-        LOG.info("Searching for top-level classes in the JDK");
+    /** Bump this whenever the format of the saved cache changes, so old caches are ignored instead of misread. */
+    private static final int VERSION = 1;
 
-        var classes = new HashSet<String>();
-        var fs = FileSystems.getFileSystem(URI.create("jrt:/"));
-        for (var m : JDK_MODULES) {
-            var moduleRoot = fs.getPath(String.format("/modules/%s/", m));
-            try (var stream = Files.walk(moduleRoot)) {
-                var it = stream.iterator();
-                while (it.hasNext()) {
-                    var classFile = it.next();
-                    var relative = moduleRoot.relativize(classFile).toString();
-                    if (relative.endsWith(".class") && !relative.contains("$")) {
-                        var trim = relative.substring(0, relative.length() - ".class".length());
-                        var qualifiedName = trim.replace(File.separatorChar, '.');
-                        classes.add(qualifiedName);
-                    }
-                }
+    /** Where class names are saved between runs. Jars are shared between workspaces, so this is per-user. */
+    static Path cacheFile = Paths.get(System.getProperty("user.home")).resolve(".javacs/classes.idx");
+
+    private static class Scanned {
+        final long size, modified;
+        final Set<String> classes;
+
+        Scanned(long size, long modified, Set<String> classes) {
+            this.size = size;
+            this.modified = modified;
+            this.classes = classes;
+        }
+
+        /** Whether jar is still the same file that was scanned */
+        boolean fresh(Path jar) {
+            try {
+                return Files.size(jar) == size && Files.getLastModifiedTime(jar).toMillis() == modified;
             } catch (IOException e) {
-                // LOG.log(Level.WARNING, "Failed indexing module " + m + "(" + e.getMessage() + ")");
+                return false;
             }
         }
+    }
+
+    /** jars[jar] is the top-level classes in jar, when it was scanned */
+    private static final Map<Path, Scanned> jars = new HashMap<>();
+
+    /** The classes in the JDK we're running on, which is identified by jdkRelease */
+    private static Set<String> jdkClasses;
+
+    private static String jdkRelease;
+
+    private static boolean loaded, unsaved;
+
+    /** Identifies the JDK whose classes are in jrt:/ */
+    private static String currentJdk() {
+        return Runtime.version() + " " + System.getProperty("java.home");
+    }
+
+    static synchronized Set<String> jdkTopLevelClasses() {
+        load();
+        if (jdkClasses != null && currentJdk().equals(jdkRelease)) {
+            return jdkClasses;
+        }
+        LOG.info("Searching for top-level classes in the JDK");
+
+        var fs = FileSystems.getFileSystem(URI.create("jrt:/"));
+        var classes =
+                Arrays.stream(JDK_MODULES)
+                        .parallel()
+                        .flatMap(m -> moduleTopLevelClasses(fs, m).stream())
+                        .collect(Collectors.toUnmodifiableSet());
 
         LOG.info(String.format("Found %d classes in the java platform", classes.size()));
 
+        jdkClasses = classes;
+        jdkRelease = currentJdk();
+        unsaved = true;
+        save();
         return classes;
     }
 
-    static Set<String> classPathTopLevelClasses(Set<Path> classPath) {
+    private static Set<String> moduleTopLevelClasses(FileSystem fs, String m) {
+        var classes = new HashSet<String>();
+        var moduleRoot = fs.getPath(String.format("/modules/%s/", m));
+        try (var stream = Files.walk(moduleRoot)) {
+            var it = stream.iterator();
+            while (it.hasNext()) {
+                var classFile = it.next();
+                var relative = moduleRoot.relativize(classFile).toString();
+                if (relative.endsWith(".class") && !relative.contains("$")) {
+                    var trim = relative.substring(0, relative.length() - ".class".length());
+                    var qualifiedName = trim.replace(File.separatorChar, '.');
+                    classes.add(qualifiedName);
+                }
+            }
+        } catch (IOException e) {
+            // LOG.log(Level.WARNING, "Failed indexing module " + m + "(" + e.getMessage() + ")");
+        }
+        return classes;
+    }
+
+    static synchronized Set<String> classPathTopLevelClasses(Set<Path> classPath) {
         LOG.info(String.format("Searching for top-level classes in %d classpath locations", classPath.size()));
+        load();
+
+        // Scan jars that have changed, and directories, whose modified time doesn't reflect their contents
+        var scan = new ArrayList<Path>();
+        for (var p : classPath) {
+            var previous = jars.get(p);
+            if (previous == null || !previous.fresh(p)) {
+                scan.add(p);
+            }
+        }
+        var cached = classPath.size() - scan.size();
+        LOG.info(String.format("...%d locations are cached, %d need to be scanned", cached, scan.size()));
+        var found = scan.parallelStream().collect(Collectors.toMap(p -> p, ScanClassPath::scan));
+        for (var p : found.keySet()) {
+            if (Files.isRegularFile(p)) {
+                jars.put(p, found.get(p));
+                unsaved = true;
+            }
+        }
+        save();
+
+        var classes = new HashSet<String>();
+        for (var p : classPath) {
+            var scanned = found.containsKey(p) ? found.get(p) : jars.get(p);
+            classes.addAll(scanned.classes);
+        }
+
+        LOG.info(String.format("Found %d classes in classpath", classes.size()));
 
-        Function<Path, URL> toUrl =
-                p -> {
-                    try {
-                        return p.toUri().toURL();
-                    } catch (MalformedURLException e) {
-                        throw new RuntimeException(e);
-                    }
-                };
-        var urls = classPath.stream().map(toUrl).toArray(URL[]::new);
-        var classLoader = new URLClassLoader(urls, null);
+        return classes;
+    }
+
+    /** Scan a single class path location, including the jars it refers to in its manifest. */
+    private static Scanned scan(Path location) {
+        URL url;
+        try {
+            url = location.toUri().toURL();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+        var size = -1L;
+        var modified = -1L;
+        try {
+            // Read these before scanning, so if the jar changes while we scan it, it will be scanned again next time
+            size = Files.size(location);
+            modified = Files.getLastModifiedTime(location).toMillis();
+        } catch (IOException e) {
+            // Missing locations are remembered as empty
+        }
+        var classLoader = new URLClassLoader(new URL[] {url}, null);
         ClassPath scanner;
         try {
             scanner = ClassPath.from(classLoader);
@@ -162,10 +257,89 @@ class ScanClassPath {
         for (var c : scanner.getTopLevelClasses()) {
             classes.add(c.getName());
         }
+        return new Scanned(size, modified, classes);
+    }
 
-        LOG.info(String.format("Found %d classes in classpath", classes.size()));
+    /** Forget everything that has been scanned, so the next scan reads cacheFile again. */
+    static synchronized void forget() {
+        jars.clear();
+        jdkClasses = null;
+        jdkRelease = null;
+        loaded = false;
+        unsaved = false;
+    }
 
-        return classes;
+    private static void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!Files.exists(cacheFile)) return;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != VERSION) {
+                LOG.info("Ignoring " + cacheFile + " because it was written by a different version");
+                return;
+            }
+            if (in.readBoolean()) {
+                jdkRelease = in.readUTF();
+                jdkClasses = Collections.unmodifiableSet(readStrings(in));
+            }
+            var count = in.readInt();
+            for (var i = 0; i < count; i++) {
+                var jar = Paths.get(in.readUTF());
+                var size = in.readLong();
+                var modified = in.readLong();
+                var classes = readStrings(in);
+                jars.put(jar, new Scanned(size, modified, classes));
+            }
+            LOG.info(String.format("Loaded classes in %d jars from %s", jars.size(), cacheFile));
+        } catch (IOException e) {
+            LOG.warning("Failed to read " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private static Set<String> readStrings(DataInputStream in) throws IOException {
+        var count = in.readInt();
+        var strings = new HashSet<String>(count);
+        for (var i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void save() {
+        if (!unsaved) return;
+        unsaved = false;
+        // Don't remember jars that have been deleted, or the cache would grow forever
+        jars.keySet().removeIf(jar -> !Files.exists(jar));
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            var temp = Files.createTempFile(cacheFile.getParent(), "classes", ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(VERSION);
+                out.writeBoolean(jdkClasses != null);
+                if (jdkClasses != null) {
+                    out.writeUTF(jdkRelease);
+                    writeStrings(out, jdkClasses);
+                }
+                out.writeInt(jars.size());
+                for (var jar : jars.keySet()) {
+                    var scanned = jars.get(jar);
+                    out.writeUTF(jar.toString());
+                    out.writeLong(scanned.size);
+                    out.writeLong(scanned.modified);
+                    writeStrings(out, scanned.classes);
+                }
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warning("Failed to write " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (var s : strings) {
+            out.writeUTF(s);
+        }
     }
 
     private static final Logger LOG = Logger.getLogger("main");
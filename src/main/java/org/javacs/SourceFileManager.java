@@ -1,16 +1,33 @@
 package org.javacs;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.logging.Logger;
 import javax.tools.*;
+import org.javacs.completion.PruneMethodBodies;
 
 class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    /**
+     * If pruneDependencies is set, files that javac reads from the source path are served with their method bodies
+     * erased. javac only needs their signatures to compile the roots, and skipping the bodies saves attributing them.
+     */
+    boolean pruneDependencies;
+
+    /** Files that are being compiled, which are always served in full */
+    private Set<Path> roots = Set.of();
+
+    /** Pruned contents of dependencies, which are reused until the file is modified, weighed by their length */
+    private final Cache<Boolean, String> pruned = new Cache<>("pruned", 20_000_000, (__, contents) -> contents.length());
+
     SourceFileManager() {
+        this(false);
+    }
+
+    SourceFileManager(boolean pruneDependencies) {
         super(createDelegateFileManager());
+        this.pruneDependencies = pruneDependencies;
     }
 
     private static StandardJavaFileManager createDelegateFileManager() {
@@ -33,11 +50,55 @@ class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManage
         }
     }
 
+    /** Set the files that are about to be compiled, so they aren't pruned if javac also finds them on the source path. */
+    void setRoots(Collection<? extends JavaFileObject> sources) {
+        var paths = new HashSet<Path>();
+        for (var f : sources) {
+            if (f instanceof SourceFileObject) {
+                paths.add(((SourceFileObject) f).path);
+            }
+        }
+        this.roots = paths;
+    }
+
     private JavaFileObject asJavaFileObject(Path file) {
-        // TODO erase method bodies of files that are not open
+        if (pruneDependencies && !roots.contains(file)) {
+            return new PrunedFileObject(file);
+        }
         return new SourceFileObject(file);
     }
 
+    /** PrunedFileObject is a dependency of the compilation, which is pruned the first time javac reads it. */
+    private class PrunedFileObject extends SourceFileObject {
+        PrunedFileObject(Path path) {
+            super(path);
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(getCharContent(true).toString().getBytes());
+        }
+
+        @Override
+        public Reader openReader(boolean ignoreEncodingErrors) {
+            return new StringReader(getCharContent(ignoreEncodingErrors).toString());
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return prune(path);
+        }
+    }
+
+    private String prune(Path file) {
+        return pruned.get(file, true, () -> pruneUncached(file));
+    }
+
+    private static String pruneUncached(Path file) {
+        var parse = Parser.parseUncached(new SourceFileObject(file));
+        return new PruneMethodBodies(parse.task).scan(parse.root, -1L).toString();
+    }
+
     @Override
     public String inferBinaryName(Location location, JavaFileObject file) {
         if (location == StandardLocation.SOURCE_PATH) {
@@ -70,7 +131,7 @@ class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManage
             var simpleClassName = StringSearch.lastName(className);
             for (var f : FileStore.list(packageName)) {
                 if (f.getFileName().toString().equals(simpleClassName + kind.extension)) {
-                    return new SourceFileObject(f);
+                    return asJavaFileObject(f);
                 }
             }
             // Fall through to disk in case we have .jar or .zip files on the source path
@@ -29,7 +29,7 @@ public class SourceFileObject implements JavaFileObject {
 
     @Override
     public boolean equals(Object other) {
-        if (other.getClass() != SourceFileObject.class) return false;
+        if (other == null || other.getClass() != getClass()) return false;
         var that = (SourceFileObject) other;
         return this.path.equals(that.path);
     }
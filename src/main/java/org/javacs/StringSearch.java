@@ -55,7 +55,7 @@ public class StringSearch {
     private final int[] goodSuffixSkip;
 
     StringSearch(String patternSting) {
-        this.pattern = patternSting.getBytes();
+        this.pattern = patternSting.getBytes(StandardCharsets.UTF_8);
         this.goodSuffixSkip = new int[pattern.length];
 
         // last is the index of the last character in the pattern.
@@ -119,19 +119,19 @@ public class StringSearch {
         return -1;
     }
 
-    private boolean isWordChar(byte b) {
-        char c = (char) (b + 128);
-        return Character.isAlphabetic(c) || Character.isDigit(c) || c == '$' || c == '_';
+    /** Bytes of UTF-8 multi-byte characters are negative, and count as word characters */
+    private static boolean isWordByte(byte b) {
+        return b < 0 || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$';
     }
 
     private boolean startsWord(ByteBuffer text, int offset) {
         if (offset == 0) return true;
-        return !isWordChar(text.get(offset - 1));
+        return !isWordByte(text.get(offset - 1));
     }
 
     private boolean endsWord(ByteBuffer text, int offset) {
         if (offset + 1 >= text.limit()) return true;
-        return !isWordChar(text.get(offset + 1));
+        return !isWordByte(text.get(offset + 1));
     }
 
     private boolean isWord(ByteBuffer text, int offset) {
@@ -196,73 +196,202 @@ public class StringSearch {
         }
     }
 
-    private static final ByteBuffer SEARCH_BUFFER = ByteBuffer.allocateDirect(1024 * 1024);
+    /**
+     * Words is a search for several whole words, compiled once so it can be run against many files. Each file is
+     * scanned once, one identifier at a time, looking up each identifier in a small hash table of the words, so the cost
+     * of a scan doesn't depend on how many words there are, and the scan stops as soon as every word has been found.
+     */
+    static class Words {
+        private final String[] words;
+        private final byte[][] utf8;
+        /** Hash of each word, computed like String.hashCode() over its chars, and over its UTF-8 bytes */
+        private final int[] charHashes, byteHashes;
+        /** Open-addressing hash tables of word index + 1, by charHashes and byteHashes; 0 means empty */
+        private final int[] byChars, byBytes;
+        /** Bits of every word, so a scan can stop once it has found them all */
+        private final long all;
+
+        Words(String... words) {
+            if (words.length > 64) throw new IllegalArgumentException("Can't search for more than 64 words at once");
+            this.words = words;
+            this.utf8 = new byte[words.length][];
+            this.charHashes = new int[words.length];
+            this.byteHashes = new int[words.length];
+            // Keep the tables at most half full, so probes stay short
+            var size = Integer.highestOneBit(Math.max(1, words.length) * 2) * 2;
+            this.byChars = new int[size];
+            this.byBytes = new int[size];
+            for (var i = 0; i < words.length; i++) {
+                utf8[i] = words[i].getBytes(StandardCharsets.UTF_8);
+                charHashes[i] = words[i].hashCode();
+                var h = 0;
+                for (var b : utf8[i]) {
+                    h = 31 * h + (b & 0xff);
+                }
+                byteHashes[i] = h;
+                insert(byChars, charHashes[i], i);
+                insert(byBytes, byteHashes[i], i);
+            }
+            this.all = words.length == 64 ? -1L : (1L << words.length) - 1;
+        }
 
-    // TODO cache the progress made by searching shorter queries
-    static boolean containsWordMatching(Path java, String query) {
-        if (FileStore.activeDocuments().contains(java)) {
-            var text = FileStore.contents(java);
-            return matchesTitleCase(text, query);
+        private static void insert(int[] table, int hash, int word) {
+            var mask = table.length - 1;
+            var slot = hash & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = word + 1;
+        }
+
+        /** Whether any of the words appears in file. */
+        boolean containsAny(Path file) {
+            return find(file) != 0;
+        }
+
+        /** Bit i of the result is set if words[i] appears in file, as a whole word. */
+        long find(Path file) {
+            if (FileStore.activeDocuments().contains(file)) {
+                return find(FileStore.contents(file));
+            }
+            var bytes = bytes(file);
+            if (bytes == null) return 0;
+            return find(bytes);
+        }
+
+        long find(CharSequence text) {
+            var found = 0L;
+            var i = 0;
+            var length = text.length();
+            while (i < length) {
+                if (!isWordChar(text.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                var start = i;
+                var hash = 0;
+                for (; i < length && isWordChar(text.charAt(i)); i++) {
+                    hash = 31 * hash + text.charAt(i);
+                }
+                var mask = byChars.length - 1;
+                for (var slot = hash & mask; byChars[slot] != 0; slot = (slot + 1) & mask) {
+                    var w = byChars[slot] - 1;
+                    if (charHashes[w] == hash && regionEquals(text, start, i, words[w])) {
+                        found |= 1L << w;
+                        if (found == all) return found;
+                        break;
+                    }
+                }
+            }
+            return found;
+        }
+
+        long find(ByteBuffer text) {
+            var found = 0L;
+            var i = 0;
+            var limit = text.limit();
+            while (i < limit) {
+                if (!isWordByte(text.get(i))) {
+                    i++;
+                    continue;
+                }
+                var start = i;
+                var hash = 0;
+                for (; i < limit && isWordByte(text.get(i)); i++) {
+                    hash = 31 * hash + (text.get(i) & 0xff);
+                }
+                var mask = byBytes.length - 1;
+                for (var slot = hash & mask; byBytes[slot] != 0; slot = (slot + 1) & mask) {
+                    var w = byBytes[slot] - 1;
+                    if (byteHashes[w] == hash && regionEquals(text, start, i, utf8[w])) {
+                        found |= 1L << w;
+                        if (found == all) return found;
+                        break;
+                    }
+                }
+            }
+            return found;
+        }
+
+        private static boolean regionEquals(CharSequence text, int start, int end, String word) {
+            if (end - start != word.length()) return false;
+            for (var i = 0; i < word.length(); i++) {
+                if (text.charAt(start + i) != word.charAt(i)) return false;
+            }
+            return true;
         }
-        try (var channel = FileChannel.open(java)) {
-            // Read up to 1 MB of data from file
-            var limit = Math.min((int) channel.size(), SEARCH_BUFFER.capacity());
-            SEARCH_BUFFER.position(0);
-            SEARCH_BUFFER.limit(limit);
-            channel.read(SEARCH_BUFFER);
-            SEARCH_BUFFER.position(0);
-            var chars = StandardCharsets.UTF_8.decode(SEARCH_BUFFER);
-            return matchesTitleCase(chars, query);
+
+        private static boolean regionEquals(ByteBuffer text, int start, int end, byte[] word) {
+            if (end - start != word.length) return false;
+            for (var i = 0; i < word.length; i++) {
+                if (text.get(start + i) != word[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /** Files up to this size are read into a buffer that belongs to the thread, bigger files are memory-mapped */
+    private static final int MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Each thread reuses one buffer for reading small files, so searches on different threads don't interfere. Mapping
+     * small files would cost more than reading them, and thousands of mappings waiting to be garbage-collected can use up
+     * the limit on mappings per process.
+     */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(64 * 1024));
+
+    /**
+     * The contents of file on disk, or null if it doesn't exist. The result may be the buffer of the current thread, so
+     * it's only valid until the next call to bytes(_) on the same thread.
+     */
+    private static ByteBuffer bytes(Path file) {
+        try (var channel = FileChannel.open(file)) {
+            var size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            var buffer = READ_BUFFER.get();
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocateDirect(MAP_THRESHOLD);
+                READ_BUFFER.set(buffer);
+            }
+            buffer.clear();
+            buffer.limit((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+            buffer.flip();
+            return buffer;
         } catch (NoSuchFileException e) {
             LOG.warning(e.getMessage());
-            return false;
+            return null;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    static boolean containsWord(Path java, String query) {
-        var search = new StringSearch(query);
+    // TODO cache the progress made by searching shorter queries
+    static boolean containsWordMatching(Path java, String query) {
         if (FileStore.activeDocuments().contains(java)) {
-            var text = FileStore.contents(java).getBytes();
-            return search.nextWord(text) != -1;
-        }
-        try (var channel = FileChannel.open(java)) {
-            // Read up to 1 MB of data from file
-            var limit = Math.min((int) channel.size(), SEARCH_BUFFER.capacity());
-            SEARCH_BUFFER.position(0);
-            SEARCH_BUFFER.limit(limit);
-            channel.read(SEARCH_BUFFER);
-            SEARCH_BUFFER.position(0);
-            return search.nextWord(SEARCH_BUFFER) != -1;
-        } catch (NoSuchFileException e) {
-            LOG.warning(e.getMessage());
-            return false;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            var text = FileStore.contents(java);
+            return matchesTitleCase(text, query);
         }
+        var bytes = bytes(java);
+        if (bytes == null) return false;
+        var chars = StandardCharsets.UTF_8.decode(bytes);
+        return matchesTitleCase(chars, query);
+    }
+
+    static boolean containsWord(Path java, String query) {
+        return new Words(query).containsAny(java);
     }
 
     private static boolean containsString(Path java, String query) {
-        var search = new StringSearch(query);
         if (FileStore.activeDocuments().contains(java)) {
-            var text = FileStore.contents(java).getBytes();
-            return search.next(text) != -1;
-        }
-        try (var channel = FileChannel.open(java)) {
-            // Read up to 1 MB of data from file
-            var limit = Math.min((int) channel.size(), SEARCH_BUFFER.capacity());
-            SEARCH_BUFFER.position(0);
-            SEARCH_BUFFER.limit(limit);
-            channel.read(SEARCH_BUFFER);
-            SEARCH_BUFFER.position(0);
-            return search.next(SEARCH_BUFFER) != -1;
-        } catch (NoSuchFileException e) {
-            LOG.warning(e.getMessage());
-            return false;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            return FileStore.contents(java).contains(query);
         }
+        var bytes = bytes(java);
+        if (bytes == null) return false;
+        return new StringSearch(query).next(bytes) != -1;
     }
 
     /**
@@ -330,24 +459,18 @@ public class StringSearch {
         }
     }
 
-    private static Cache<String, Boolean> cacheContainsClass = new Cache<>();
+    private static Cache<String, Boolean> cacheContainsClass = new Cache<>("containsClass", 100_000);
 
     private static boolean containsClass(Path file, String simpleName) {
-        if (cacheContainsClass.needs(file, simpleName)) {
-            cacheContainsClass.load(file, simpleName, containsString(file, "class " + simpleName));
-            // TODO verify this by actually parsing the file
-        }
-        return cacheContainsClass.get(file, simpleName);
+        // TODO verify this by actually parsing the file
+        return cacheContainsClass.get(file, simpleName, () -> containsString(file, "class " + simpleName));
     }
 
-    private static Cache<String, Boolean> cacheContainsInterface = new Cache<>();
+    private static Cache<String, Boolean> cacheContainsInterface = new Cache<>("containsInterface", 100_000);
 
     private static boolean containsInterface(Path file, String simpleName) {
-        if (cacheContainsInterface.needs(file, simpleName)) {
-            cacheContainsInterface.load(file, simpleName, containsString(file, "interface " + simpleName));
-            // TODO verify this by actually parsing the file
-        }
-        return cacheContainsInterface.get(file, simpleName);
+        // TODO verify this by actually parsing the file
+        return cacheContainsInterface.get(file, simpleName, () -> containsString(file, "interface " + simpleName));
     }
 
     // TODO this doesn't work for inner classes, eliminate
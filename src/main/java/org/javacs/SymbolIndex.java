@@ -0,0 +1,535 @@
+package org.javacs;
+
+import com.sun.source.tree.*;
+import com.sun.source.util.TreePathScanner;
+import java.io.*;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * SymbolIndex remembers, for each source file in FileStore, the names it declares and the identifiers it mentions, and
+ * the package, imports and top-level types that DependencyGraph is built from. The index is saved under each workspace
+ * root, so a restart only needs to re-index files that were modified in between.
+ */
+class SymbolIndex {
+    /** Bump this whenever the format of the saved index changes, so old indexes are ignored instead of misread. */
+    private static final int VERSION = 2;
+
+    private static final String INDEX_FILE = ".javacs/symbols.idx";
+
+    private static class Entry {
+        /** modified is the FileStore.modified(...) time of the file when it was indexed */
+        final Instant modified;
+        /** declarations are the names of classes, methods and fields declared in the file */
+        final Set<String> declarations;
+        /** words are the identifiers that appear anywhere in the file */
+        final Set<String> words;
+        /** packageName is the package the file declares, or "" */
+        final String packageName;
+        /** types are the qualified names of the top-level types declared in the file */
+        final Set<String> types;
+        /**
+         * imports are the imported names, like a.b.C or a.b.*, with static imports reduced to their class. Qualified
+         * names used in the body of the file, like a.b.C.member, are included too, because they work like imports.
+         */
+        final Set<String> imports;
+
+        Entry(
+                Instant modified,
+                Set<String> declarations,
+                Set<String> words,
+                String packageName,
+                Set<String> types,
+                Set<String> imports) {
+            this.modified = modified;
+            this.declarations = declarations;
+            this.words = words;
+            this.packageName = packageName;
+            this.types = types;
+            this.imports = imports;
+        }
+    }
+
+    private static final Map<Path, Entry> entries = new HashMap<>();
+
+    /** declaredIn[name] is the set of files that declare a class, method or field called name */
+    private static final Map<String, Set<Path>> declaredIn = new HashMap<>();
+
+    /** mentionedIn[word] is the set of files that contain the identifier word */
+    private static final Map<String, Set<Path>> mentionedIn = new HashMap<>();
+
+    /** typeDeclaredIn[className] is the set of files that declare the top-level type className */
+    private static final Map<String, Set<Path>> typeDeclaredIn = new HashMap<>();
+
+    /** importedIn[name] is the set of files that import name, sorted so we can find all imports starting with a class */
+    private static final TreeMap<String, Set<Path>> importedIn = new TreeMap<>();
+
+    /** Workspace roots whose saved index has already been read from disk. */
+    private static final Set<Path> loadedRoots = new HashSet<>();
+
+    /** Whether entries for files on disk have changed since the index was last saved. */
+    private static boolean unsaved;
+
+    /** How long to wait after a change before saving, so a burst of changes is written once. */
+    private static final long SAVE_DELAY_MS = 1000;
+
+    private static final ScheduledExecutorService saver =
+            Executors.newSingleThreadScheduledExecutor(SymbolIndex::daemon);
+
+    private static Thread daemon(Runnable r) {
+        var t = new Thread(r, "save-symbol-index");
+        t.setDaemon(true);
+        return t;
+    }
+
+    private static boolean isSaveScheduled;
+
+    /** Find all files that declare a class, method or field whose name passes test. */
+    static synchronized List<Path> declaring(Predicate<String> test) {
+        refresh();
+        var found = new TreeSet<Path>();
+        for (var name : declaredIn.keySet()) {
+            if (test.test(name)) {
+                found.addAll(declaredIn.get(name));
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /** Find all files that contain the identifier word. */
+    static synchronized List<Path> mentioning(String word) {
+        refresh();
+        var found = mentionedIn.getOrDefault(word, Set.of());
+        return new ArrayList<>(new TreeSet<>(found));
+    }
+
+    // packageName, types, mentions and inPackage only look at a few files, so they only re-index those files,
+    // which is much faster than refreshing the whole index when the workspace hasn't been indexed yet
+
+    /** The package file declares, or "" if it isn't in the workspace. */
+    static synchronized String packageName(Path file) {
+        refresh(file);
+        var entry = entries.get(file);
+        if (entry == null) return "";
+        return entry.packageName;
+    }
+
+    /** The qualified names of the top-level types declared in file. */
+    static synchronized Set<String> types(Path file) {
+        refresh(file);
+        var entry = entries.get(file);
+        if (entry == null) return Set.of();
+        return entry.types;
+    }
+
+    /** Whether file contains the identifier word. */
+    static synchronized boolean mentions(Path file, String word) {
+        refresh(file);
+        var entry = entries.get(file);
+        return entry != null && entry.words.contains(word);
+    }
+
+    /** All files in packageName. */
+    static synchronized Set<Path> inPackage(String packageName) {
+        var found = new HashSet<Path>();
+        for (var file : FileStore.list(packageName)) {
+            refresh(file);
+            var entry = entries.get(file);
+            if (entry != null && entry.packageName.equals(packageName)) {
+                found.add(file);
+            }
+        }
+        return found;
+    }
+
+    /** Files that declare the top-level type className. */
+    static synchronized Set<Path> declaringType(String className) {
+        refresh();
+        return new HashSet<>(typeDeclaredIn.getOrDefault(className, Set.of()));
+    }
+
+    /**
+     * Files that import the top-level type className, its nested types or its static members, or import all of
+     * packageName with *, or refer to className by its qualified name.
+     */
+    static synchronized Set<Path> importing(String className, String packageName) {
+        refresh();
+        return importingIndexed(className, packageName);
+    }
+
+    /**
+     * Files that can see a type declared in file, the files that can see those, and so on, through packages and
+     * imports, not including file. The index is refreshed once, and then walked in memory.
+     */
+    static synchronized Set<Path> canSeeTransitively(Path file) {
+        refresh();
+        var byPackage = new HashMap<String, Set<Path>>();
+        for (var f : entries.keySet()) {
+            byPackage.computeIfAbsent(entries.get(f).packageName, __ -> new HashSet<>()).add(f);
+        }
+        var visited = new HashSet<Path>();
+        visited.add(file);
+        var frontier = new ArrayDeque<Path>();
+        frontier.add(file);
+        while (!frontier.isEmpty()) {
+            var entry = entries.get(frontier.pop());
+            if (entry == null) continue;
+            var canSee = new HashSet<>(byPackage.getOrDefault(entry.packageName, Set.of()));
+            for (var type : entry.types) {
+                canSee.addAll(importingIndexed(type, entry.packageName));
+            }
+            for (var f : canSee) {
+                if (visited.add(f)) {
+                    frontier.add(f);
+                }
+            }
+        }
+        visited.remove(file);
+        return visited;
+    }
+
+    private static Set<Path> importingIndexed(String className, String packageName) {
+        var found = new HashSet<Path>();
+        found.addAll(importedIn.getOrDefault(className, Set.of()));
+        found.addAll(importedIn.getOrDefault(packageName + ".*", Set.of()));
+        // a.b.C.Nested, a.b.C.member and a.b.C.* all come between "a.b.C." and "a.b.C/" in sort order
+        for (var files : importedIn.subMap(className + ".", className + "/").values()) {
+            found.addAll(files);
+        }
+        return found;
+    }
+
+    /** Every indexed file. */
+    static synchronized Set<Path> files() {
+        refresh();
+        return new HashSet<>(entries.keySet());
+    }
+
+    /** Check that every file in FileStore has an up-to-date entry, and re-index the files that don't. */
+    private static void refresh() {
+        loadRoots();
+        var all = new HashSet<Path>(FileStore.all());
+        var removed = new ArrayList<Path>();
+        for (var file : entries.keySet()) {
+            if (!all.contains(file)) {
+                removed.add(file);
+            }
+        }
+        for (var file : removed) {
+            remove(file);
+        }
+        unsaved |= !removed.isEmpty();
+        var stale = new ArrayList<Path>();
+        var modified = new HashMap<Path, Instant>();
+        for (var file : FileStore.all()) {
+            var m = FileStore.modified(file);
+            var entry = entries.get(file);
+            if (entry != null && entry.modified.equals(m)) continue;
+            stale.add(file);
+            modified.put(file, m);
+        }
+        // Parse the stale files on every core, then add them to the index on this thread
+        var indexed = ParallelScan.map(stale, file -> index(file, modified.get(file)));
+        for (var i = 0; i < stale.size(); i++) {
+            var file = stale.get(i);
+            remove(file);
+            add(file, indexed.get(i));
+            if (!FileStore.activeDocuments().contains(file)) {
+                unsaved = true;
+            }
+        }
+        if (!stale.isEmpty()) {
+            LOG.info(String.format("...re-indexed %d files", stale.size()));
+        }
+        if (unsaved) {
+            scheduleSave();
+        }
+    }
+
+    /** Re-index file if it has changed, without checking the rest of the index. */
+    private static void refresh(Path file) {
+        loadRoots();
+        if (!FileStore.contains(file)) {
+            if (entries.containsKey(file)) {
+                remove(file);
+                unsaved = true;
+            }
+            return;
+        }
+        var modified = FileStore.modified(file);
+        var entry = entries.get(file);
+        if (entry != null && entry.modified.equals(modified)) return;
+        remove(file);
+        add(file, index(file, modified));
+        // The next refresh() will save the index
+        if (!FileStore.activeDocuments().contains(file)) {
+            unsaved = true;
+        }
+    }
+
+    /** Read the saved index of any workspace roots we haven't seen before. */
+    private static void loadRoots() {
+        loadedRoots.retainAll(FileStore.workspaceRoots());
+        Set<Path> all = null;
+        for (var root : FileStore.workspaceRoots()) {
+            if (loadedRoots.add(root)) {
+                if (all == null) all = new HashSet<>(FileStore.all());
+                load(root, all);
+            }
+        }
+    }
+
+    private static Entry index(Path file, Instant modified) {
+        // Indexing looks at each file once, so keep it out of the parse cache
+        var parse = Parser.parseUncached(new SourceFileObject(file));
+        var declarations = new HashSet<String>();
+        new FindDeclarations().scan(parse.root, declarations);
+        var words = words(parse.contents);
+        var packageName = Objects.toString(parse.root.getPackageName(), "");
+        var types = new HashSet<String>();
+        for (var t : parse.root.getTypeDecls()) {
+            if (!(t instanceof ClassTree)) continue;
+            var simpleName = ((ClassTree) t).getSimpleName().toString();
+            types.add(packageName.isEmpty() ? simpleName : packageName + "." + simpleName);
+        }
+        var imports = new HashSet<String>();
+        for (var i : parse.root.getImports()) {
+            var name = i.getQualifiedIdentifier().toString();
+            if (i.isStatic()) {
+                // import static a.b.C.member and import static a.b.C.* both depend on a.b.C
+                name = name.substring(0, name.lastIndexOf('.'));
+            }
+            imports.add(name);
+        }
+        new FindQualifiedNames().scan(parse.root, imports);
+        return new Entry(modified, declarations, words, packageName, types, imports);
+    }
+
+    private static Set<String> words(CharSequence contents) {
+        var words = new HashSet<String>();
+        var i = 0;
+        while (i < contents.length()) {
+            if (!Character.isJavaIdentifierStart(contents.charAt(i))) {
+                i++;
+                continue;
+            }
+            var start = i;
+            while (i < contents.length() && Character.isJavaIdentifierPart(contents.charAt(i))) {
+                i++;
+            }
+            words.add(contents.subSequence(start, i).toString());
+        }
+        return words;
+    }
+
+    private static class FindDeclarations extends TreePathScanner<Void, Set<String>> {
+        @Override
+        public Void visitClass(ClassTree t, Set<String> found) {
+            found.add(t.getSimpleName().toString());
+            return super.visitClass(t, found);
+        }
+
+        @Override
+        public Void visitMethod(MethodTree t, Set<String> found) {
+            found.add(t.getName().toString());
+            return super.visitMethod(t, found);
+        }
+
+        @Override
+        public Void visitVariable(VariableTree t, Set<String> found) {
+            if (getCurrentPath().getParentPath().getLeaf() instanceof ClassTree) {
+                found.add(t.getName().toString());
+            }
+            return super.visitVariable(t, found);
+        }
+    }
+
+    /** FindQualifiedNames finds names like a.b.C.member, which refer to a class without importing it. */
+    private static class FindQualifiedNames extends TreePathScanner<Void, Set<String>> {
+        @Override
+        public Void visitPackage(PackageTree t, Set<String> found) {
+            return null;
+        }
+
+        @Override
+        public Void visitImport(ImportTree t, Set<String> found) {
+            return null;
+        }
+
+        @Override
+        public Void visitMemberSelect(MemberSelectTree t, Set<String> found) {
+            var name = qualifiedName(t);
+            if (name == null) return super.visitMemberSelect(t, found);
+            found.add(name);
+            return null;
+        }
+
+        /** If t looks like package.Class..., the whole name, otherwise null */
+        private String qualifiedName(MemberSelectTree t) {
+            var segments = new ArrayDeque<String>();
+            ExpressionTree next = t;
+            while (next instanceof MemberSelectTree) {
+                var select = (MemberSelectTree) next;
+                segments.addFirst(select.getIdentifier().toString());
+                next = select.getExpression();
+            }
+            if (!(next instanceof IdentifierTree)) return null;
+            var first = ((IdentifierTree) next).getName().toString();
+            // Package names are lowercase and class names are capitalized, so this.x.y or list.size() won't match
+            if (first.isEmpty() || !Character.isLowerCase(first.charAt(0)) || first.equals("this")) return null;
+            var hasClass = false;
+            for (var s : segments) {
+                hasClass |= !s.isEmpty() && Character.isUpperCase(s.charAt(0));
+            }
+            if (!hasClass) return null;
+            return first + "." + String.join(".", segments);
+        }
+    }
+
+    private static void add(Path file, Entry entry) {
+        entries.put(file, entry);
+        for (var type : entry.types) {
+            typeDeclaredIn.computeIfAbsent(type, __ -> new HashSet<>()).add(file);
+        }
+        for (var name : entry.imports) {
+            importedIn.computeIfAbsent(name, __ -> new HashSet<>()).add(file);
+        }
+        for (var name : entry.declarations) {
+            declaredIn.computeIfAbsent(name, __ -> new HashSet<>()).add(file);
+        }
+        for (var word : entry.words) {
+            mentionedIn.computeIfAbsent(word, __ -> new HashSet<>()).add(file);
+        }
+    }
+
+    private static void remove(Path file) {
+        var entry = entries.remove(file);
+        if (entry == null) return;
+        for (var name : entry.declarations) {
+            removePosting(declaredIn, name, file);
+        }
+        for (var word : entry.words) {
+            removePosting(mentionedIn, word, file);
+        }
+        for (var type : entry.types) {
+            removePosting(typeDeclaredIn, type, file);
+        }
+        for (var name : entry.imports) {
+            removePosting(importedIn, name, file);
+        }
+    }
+
+    private static void removePosting(Map<String, Set<Path>> postings, String key, Path file) {
+        var files = postings.get(key);
+        if (files == null) return;
+        files.remove(file);
+        if (files.isEmpty()) {
+            postings.remove(key);
+        }
+    }
+
+    private static void load(Path root, Set<Path> all) {
+        var indexFile = root.resolve(INDEX_FILE);
+        if (!Files.exists(indexFile)) return;
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != VERSION) {
+                LOG.info("Ignoring " + indexFile + " because it was written by a different version");
+                return;
+            }
+            var count = in.readInt();
+            for (var i = 0; i < count; i++) {
+                var file = root.resolve(in.readUTF());
+                var modified = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                var declarations = readStrings(in);
+                var words = readStrings(in);
+                var packageName = in.readUTF();
+                var types = readStrings(in);
+                var imports = readStrings(in);
+                if (all.contains(file) && !entries.containsKey(file)) {
+                    add(file, new Entry(modified, declarations, words, packageName, types, imports));
+                }
+            }
+            LOG.info(String.format("Loaded %d entries from %s", entries.size(), indexFile));
+        } catch (IOException e) {
+            LOG.warning("Failed to read " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    private static Set<String> readStrings(DataInputStream in) throws IOException {
+        var count = in.readInt();
+        var strings = new HashSet<String>(count);
+        for (var i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void scheduleSave() {
+        if (isSaveScheduled) return;
+        isSaveScheduled = true;
+        saver.schedule(() -> save(), SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Write the index of every workspace root, copying the entries under the lock and writing them outside it. */
+    static void save() {
+        var snapshots = new HashMap<Path, Map<Path, Entry>>();
+        synchronized (SymbolIndex.class) {
+            isSaveScheduled = false;
+            unsaved = false;
+            var active = FileStore.activeDocuments();
+            for (var root : FileStore.workspaceRoots()) {
+                var snapshot = new HashMap<Path, Entry>();
+                for (var e : entries.entrySet()) {
+                    // Entries for open files reflect unsaved edits, so they can't be validated against the disk after a
+                    // restart
+                    if (e.getKey().startsWith(root) && !active.contains(e.getKey())) {
+                        snapshot.put(e.getKey(), e.getValue());
+                    }
+                }
+                snapshots.put(root, snapshot);
+            }
+        }
+        for (var root : snapshots.keySet()) {
+            save(root, snapshots.get(root));
+        }
+    }
+
+    private static void save(Path root, Map<Path, Entry> snapshot) {
+        var indexFile = root.resolve(INDEX_FILE);
+        try {
+            Files.createDirectories(indexFile.getParent());
+            var temp = Files.createTempFile(indexFile.getParent(), "symbols", ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (var file : snapshot.keySet()) {
+                    var entry = snapshot.get(file);
+                    out.writeUTF(root.relativize(file).toString());
+                    out.writeLong(entry.modified.getEpochSecond());
+                    out.writeInt(entry.modified.getNano());
+                    writeStrings(out, entry.declarations);
+                    writeStrings(out, entry.words);
+                    out.writeUTF(entry.packageName);
+                    writeStrings(out, entry.types);
+                    writeStrings(out, entry.imports);
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warning("Failed to write " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (var s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
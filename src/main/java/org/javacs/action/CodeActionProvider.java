@@ -167,12 +167,12 @@ public class CodeActionProvider {
             case "compiler.err.cant.resolve.location":
                 var simpleName = extractRange(task, d.range);
                 var allImports = new ArrayList<CodeAction>();
-                for (var qualifiedName : compiler.publicTopLevelTypes()) {
-                    if (qualifiedName.endsWith("." + simpleName)) {
-                        var title = "Import '" + qualifiedName + "'";
-                        var addImport = new AddImport(file, qualifiedName);
-                        allImports.addAll(createQuickFix(title, addImport));
-                    }
+                for (var qualifiedName : compiler.publicTopLevelTypes().withSimpleName(simpleName.toString())) {
+                    // Classes in the default package can't be imported
+                    if (!qualifiedName.contains(".")) continue;
+                    var title = "Import '" + qualifiedName + "'";
+                    var addImport = new AddImport(file, qualifiedName);
+                    allImports.addAll(createQuickFix(title, addImport));
                 }
                 return allImports;
             case "compiler.err.var.not.initialized.in.default.constructor":
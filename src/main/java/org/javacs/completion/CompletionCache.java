@@ -0,0 +1,108 @@
+package org.javacs.completion;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.javacs.CompilerProvider;
+import org.javacs.FileStore;
+import org.javacs.StringSearch;
+import org.javacs.lsp.CompletionItem;
+import org.javacs.lsp.CompletionItemKind;
+import org.javacs.lsp.CompletionList;
+
+/**
+ * CompletionCache remembers the last complete list of completions, so when the user types more letters of the same
+ * identifier, we can filter that list instead of compiling again. Everything that decides which completions are
+ * possible, like the receiver of a member select, is outside the identifier, so the list can be reused as long as the
+ * text outside the identifier, the other open documents and the compiler are the same.
+ */
+class CompletionCache {
+    private static class Entry {
+        final CompilerProvider compiler;
+        final Path file;
+        final String contents;
+        /** The identifier being completed is contents[start, cursor) */
+        final int start, cursor;
+        final String partial;
+        /** The versions of the other open documents */
+        final Map<Path, Integer> others;
+        final List<CompletionItem> items;
+
+        Entry(
+                CompilerProvider compiler,
+                Path file,
+                String contents,
+                int start,
+                int cursor,
+                Map<Path, Integer> others,
+                List<CompletionItem> items) {
+            this.compiler = compiler;
+            this.file = file;
+            this.contents = contents;
+            this.start = start;
+            this.cursor = cursor;
+            this.partial = contents.substring(start, cursor);
+            this.others = others;
+            this.items = items;
+        }
+    }
+
+    private static Entry last;
+
+    static synchronized void put(
+            CompilerProvider compiler, Path file, String contents, int start, int cursor, CompletionList list) {
+        // An incomplete list might be missing items that match a longer identifier
+        if (list.isIncomplete) {
+            last = null;
+            return;
+        }
+        last = new Entry(compiler, file, contents, start, cursor, others(file), List.copyOf(list.items));
+    }
+
+    /**
+     * The cached completions that match contents[start, cursor), if that extends the cached identifier and nothing else
+     * has changed, or null.
+     */
+    static synchronized CompletionList refine(
+            CompilerProvider compiler, Path file, String contents, int start, int cursor) {
+        var entry = last;
+        if (entry == null || entry.compiler != compiler || !entry.file.equals(file) || entry.start != start) return null;
+        var partial = contents.substring(start, cursor);
+        if (!partial.startsWith(entry.partial)) return null;
+        // Class names are only suggested for capitalized identifiers, so they aren't in the list for an empty one
+        if (entry.partial.isEmpty() && !partial.isEmpty() && Character.isUpperCase(partial.charAt(0))) return null;
+        var tail = contents.length() - cursor;
+        if (tail != entry.contents.length() - entry.cursor) return null;
+        if (!contents.regionMatches(0, entry.contents, 0, start)) return null;
+        if (!contents.regionMatches(cursor, entry.contents, entry.cursor, tail)) return null;
+        if (!others(file).equals(entry.others)) return null;
+        var items = new ArrayList<CompletionItem>();
+        for (var i : entry.items) {
+            if (matches(i, entry.partial, partial)) {
+                items.add(i);
+            }
+        }
+        return new CompletionList(false, items);
+    }
+
+    /**
+     * Items that didn't start with the old identifier were added without looking at it, like snippets and the class
+     * keyword after Foo., so they stay. The rest have to start with the new identifier.
+     */
+    private static boolean matches(CompletionItem item, String previous, String partial) {
+        if (item.kind == CompletionItemKind.Snippet) return true;
+        if (!StringSearch.matchesPartialName(item.label, previous)) return true;
+        return StringSearch.matchesPartialName(item.label, partial);
+    }
+
+    private static Map<Path, Integer> others(Path file) {
+        var versions = FileStore.activeVersions();
+        versions.remove(file);
+        return versions;
+    }
+
+    static synchronized void clear() {
+        last = null;
+    }
+}
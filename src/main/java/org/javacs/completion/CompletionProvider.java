@@ -1,13 +1,16 @@
 package org.javacs.completion;
 
+import com.sun.source.tree.AssignmentTree;
 import com.sun.source.tree.ClassTree;
 import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.LambdaExpressionTree;
 import com.sun.source.tree.MemberReferenceTree;
 import com.sun.source.tree.MemberSelectTree;
 import com.sun.source.tree.MethodTree;
 import com.sun.source.tree.Scope;
 import com.sun.source.tree.SwitchTree;
 import com.sun.source.tree.Tree;
+import com.sun.source.tree.VariableTree;
 import com.sun.source.util.TreePath;
 import com.sun.source.util.Trees;
 import java.nio.file.Path;
@@ -31,6 +34,7 @@ import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.ArrayType;
 import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
 import javax.lang.model.type.TypeVariable;
 import org.javacs.CompileTask;
 import org.javacs.CompilerProvider;
@@ -48,9 +52,14 @@ import org.javacs.lsp.InsertTextFormat;
 
 public class CompletionProvider {
     private final CompilerProvider compiler;
+    private Relevance relevance = Relevance.NONE;
+    /** Import completions are already in package order, and a page of them shouldn't be cut down by ranking */
+    private boolean isImport;
 
     public static final CompletionList NOT_SUPPORTED = new CompletionList(false, List.of());
     public static final int MAX_COMPLETION_ITEMS = 50;
+    /** Searches that could go on forever, like class names, stop here, so ranking has more to choose from than fits */
+    private static final int MAX_CANDIDATES = 4 * MAX_COMPLETION_ITEMS;
 
     private static final String[] TOP_LEVEL_KEYWORDS = {
         "package",
@@ -123,6 +132,18 @@ public class CompletionProvider {
     public CompletionList complete(Path file, int line, int column) {
         LOG.info("Complete at " + file.getFileName() + "(" + line + "," + column + ")...");
         var started = Instant.now();
+        // If the user has only typed more of the same identifier, filter the last list instead of compiling again
+        var text = FileStore.contents(file);
+        var offset = FileStore.offset(file, line, column);
+        var start = offset - partialIdentifier(text, offset).length();
+        var partial = text.substring(start, offset);
+        var cached = CompletionCache.refine(compiler, file, text, start, offset);
+        if (cached != null) {
+            LOG.info("...refined the previous completions");
+            var ranked = rank(cached, text, start, partial);
+            logCompletionTiming(started, ranked.items, ranked.isIncomplete);
+            return ranked;
+        }
         var task = compiler.parse(file);
         var cursor = task.root.getLineMap().getPosition(line, column);
         var contents = new PruneMethodBodies(task.task).scan(task.root, cursor);
@@ -130,10 +151,26 @@ public class CompletionProvider {
         contents.insert(endOfLine, ';');
         var list = compileAndComplete(file, contents.toString(), cursor);
         addTopLevelSnippets(task, list);
+        // Import lists aren't ranked, so they aren't cached either, because refined lists always are
+        if (isImport) {
+            CompletionCache.clear();
+        } else if (list != NOT_SUPPORTED) {
+            CompletionCache.put(compiler, file, text, start, offset, list);
+            list = rank(list, text, start, partial);
+        }
         logCompletionTiming(started, list.items, list.isIncomplete);
         return list;
     }
 
+    /**
+     * Sort the list best first. If discovery gave up before it found everything, only send the best items, since the
+     * client will ask again anyway. A complete list is sent whole, so the client can keep filtering it without asking.
+     */
+    private CompletionList rank(CompletionList list, String contents, int start, String partial) {
+        var k = list.isIncomplete ? MAX_COMPLETION_ITEMS : list.items.size();
+        return TopCompletions.select(list, contents, start, partial, k);
+    }
+
     private int endOfLine(CharSequence contents, int cursor) {
         while (cursor < contents.length()) {
             var c = contents.charAt(cursor);
@@ -151,6 +188,7 @@ public class CompletionProvider {
         try (var task = compiler.compile(List.of(source))) {
             LOG.info("...compiled in " + Duration.between(started, Instant.now()).toMillis() + "ms");
             var path = new FindCompletionsAt(task.task).scan(task.root(), cursor);
+            relevance = new Relevance(task.task.getTypes(), expectedType(task, path));
             switch (path.getLeaf().getKind()) {
                 case IDENTIFIER:
                     return completeIdentifier(task, path, partial, endsWithParen);
@@ -161,6 +199,7 @@ public class CompletionProvider {
                 case SWITCH:
                     return completeSwitchConstant(task, path, partial);
                 case IMPORT:
+                    isImport = true;
                     return completeImport(qualifiedPartialIdentifier(contents, (int) cursor));
                 default:
                     var list = new CompletionList();
@@ -170,6 +209,40 @@ public class CompletionProvider {
         }
     }
 
+    /** The type of expression that fits where the cursor is, or null if we can't tell */
+    private TypeMirror expectedType(CompileTask task, TreePath path) {
+        var trees = Trees.instance(task.task);
+        var parent = path.getParentPath();
+        if (parent == null) return null;
+        var leaf = path.getLeaf();
+        switch (parent.getLeaf().getKind()) {
+            case VARIABLE:
+                {
+                    var variable = (VariableTree) parent.getLeaf();
+                    if (variable.getInitializer() != leaf) return null;
+                    var element = trees.getElement(parent);
+                    return element == null ? null : element.asType();
+                }
+            case ASSIGNMENT:
+                {
+                    var assign = (AssignmentTree) parent.getLeaf();
+                    if (assign.getExpression() != leaf) return null;
+                    return trees.getTypeMirror(new TreePath(parent, assign.getVariable()));
+                }
+            case RETURN:
+                for (var p = parent; p != null; p = p.getParentPath()) {
+                    if (p.getLeaf() instanceof LambdaExpressionTree) return null;
+                    if (p.getLeaf() instanceof MethodTree) {
+                        var method = (ExecutableElement) trees.getElement(p);
+                        return method == null ? null : method.getReturnType();
+                    }
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
     private void addTopLevelSnippets(ParseTask task, CompletionList list) {
         var file = Paths.get(task.root.getSourceFile().toUri());
         if (!hasTypeDeclaration(task.root)) {
@@ -276,16 +349,17 @@ public class CompletionProvider {
         var list = new ArrayList<CompletionItem>();
         var methods = new HashMap<String, List<ExecutableElement>>();
         var scope = trees.getScope(path);
+        var site = scope.getEnclosingClass();
         Predicate<CharSequence> filter = name -> StringSearch.matchesPartialName(name, partial);
         for (var member : ScopeHelper.scopeMembers(task, scope, filter)) {
             if (member.getKind() == ElementKind.METHOD) {
                 putMethod((ExecutableElement) member, methods);
             } else {
-                list.add(item(task, member));
+                list.add(item(task, member, site));
             }
         }
         for (var overloads : methods.values()) {
-            list.add(method(task, overloads, !endsWithParen));
+            list.add(method(task, overloads, !endsWithParen, site));
         }
         LOG.info("...found " + list.size() + " scope members");
         return list;
@@ -310,16 +384,16 @@ public class CompletionProvider {
                 if (member.getKind() == ElementKind.METHOD) {
                     putMethod((ExecutableElement) member, methods);
                 } else {
-                    list.items.add(item(task, member));
+                    list.items.add(item(task, member, null));
                 }
-                if (list.items.size() + methods.size() > MAX_COMPLETION_ITEMS) {
+                if (list.items.size() + methods.size() > MAX_CANDIDATES) {
                     list.isIncomplete = true;
                     break outer;
                 }
             }
         }
         for (var overloads : methods.values()) {
-            list.items.add(method(task, overloads, !endsWithParen));
+            list.items.add(method(task, overloads, !endsWithParen, null));
         }
         LOG.info("...found " + (list.items.size() - previousSize) + " static imports");
     }
@@ -341,10 +415,15 @@ public class CompletionProvider {
             list.items.add(classItem(className));
             uniques.add(className);
         }
-        for (var className : compiler.publicTopLevelTypes()) {
-            if (!StringSearch.matchesPartialName(simpleName(className), partial)) continue;
+        // Ask for more than fit, so we know if the list is incomplete, even if some of them are already in the list
+        var room = Math.max(0, MAX_CANDIDATES - list.items.size()) + 2 + uniques.size();
+        var classNames = compiler.publicTopLevelTypes();
+        var matches = new ArrayList<String>(classNames.withSimplePrefix(partial, room));
+        // Then classes that match by camel humps, like AL for ArrayList
+        matches.addAll(classNames.matchingCamelHumps(partial, room));
+        for (var className : matches) {
             if (uniques.contains(className)) continue;
-            if (list.items.size() > MAX_COMPLETION_ITEMS) {
+            if (list.items.size() > MAX_CANDIDATES) {
                 list.isIncomplete = true;
                 break;
             }
@@ -403,19 +482,21 @@ public class CompletionProvider {
         var typeElement = (TypeElement) type.asElement();
         var list = new ArrayList<CompletionItem>();
         var methods = new HashMap<String, List<ExecutableElement>>();
-        for (var member : task.task.getElements().getAllMembers(typeElement)) {
+        var members = MemberCache.members(task.task.getElements(), typeElement);
+        for (var m : members.members) {
+            var member = m.element;
             if (member.getKind() == ElementKind.CONSTRUCTOR) continue;
-            if (!StringSearch.matchesPartialName(member.getSimpleName(), partial)) continue;
-            if (!trees.isAccessible(scope, member, type)) continue;
-            if (isStatic != member.getModifiers().contains(Modifier.STATIC)) continue;
+            if (!StringSearch.matchesPartialName(m.name, partial)) continue;
+            if (isStatic != m.isStatic) continue;
+            if (!members.isAccessible(trees, scope, m, type)) continue;
             if (member.getKind() == ElementKind.METHOD) {
                 putMethod((ExecutableElement) member, methods);
             } else {
-                list.add(item(task, member));
+                list.add(item(task, member, typeElement));
             }
         }
         for (var overloads : methods.values()) {
-            list.add(method(task, overloads, !endsWithParen));
+            list.add(method(task, overloads, !endsWithParen, typeElement));
         }
         if (isStatic) {
             list.add(keyword("class"));
@@ -496,19 +577,21 @@ public class CompletionProvider {
         var typeElement = (TypeElement) type.asElement();
         var list = new ArrayList<CompletionItem>();
         var methods = new HashMap<String, List<ExecutableElement>>();
-        for (var member : task.task.getElements().getAllMembers(typeElement)) {
-            if (!StringSearch.matchesPartialName(member.getSimpleName(), partial)) continue;
+        var members = MemberCache.members(task.task.getElements(), typeElement);
+        for (var m : members.members) {
+            var member = m.element;
+            if (!StringSearch.matchesPartialName(m.name, partial)) continue;
             if (member.getKind() != ElementKind.METHOD) continue;
-            if (!trees.isAccessible(scope, member, type)) continue;
-            if (!isStatic && member.getModifiers().contains(Modifier.STATIC)) continue;
+            if (!isStatic && m.isStatic) continue;
+            if (!members.isAccessible(trees, scope, m, type)) continue;
             if (member.getKind() == ElementKind.METHOD) {
                 putMethod((ExecutableElement) member, methods);
             } else {
-                list.add(item(task, member));
+                list.add(item(task, member, typeElement));
             }
         }
         for (var overloads : methods.values()) {
-            list.add(method(task, overloads, false));
+            list.add(method(task, overloads, false, typeElement));
         }
         if (isStatic) {
             list.add(keyword("new"));
@@ -537,36 +620,32 @@ public class CompletionProvider {
         var declared = (DeclaredType) type;
         var element = (TypeElement) declared.asElement();
         var list = new ArrayList<CompletionItem>();
-        for (var member : task.task.getElements().getAllMembers(element)) {
-            if (member.getKind() != ElementKind.ENUM_CONSTANT) continue;
-            if (!StringSearch.matchesPartialName(member.getSimpleName(), partial)) continue;
-            list.add(item(task, member));
+        for (var m : MemberCache.members(task.task.getElements(), element).members) {
+            if (m.element.getKind() != ElementKind.ENUM_CONSTANT) continue;
+            if (!StringSearch.matchesPartialName(m.name, partial)) continue;
+            var i = item(task, m.element, element);
+            i.sortText = Relevance.sortText(false, Relevance.Priority.CASE_LABEL, i.label);
+            list.add(i);
         }
         return new CompletionList(false, list);
     }
 
     private CompletionList completeImport(String path) {
         LOG.info("...complete import");
-        var names = new HashSet<String>();
+        var classNames = compiler.publicTopLevelTypes();
         var list = new CompletionList();
-        for (var className : compiler.publicTopLevelTypes()) {
-            if (className.startsWith(path)) {
-                var start = path.lastIndexOf('.');
-                var end = className.indexOf('.', path.length());
-                if (end == -1) end = className.length();
-                var segment = className.substring(start + 1, end);
-                if (names.contains(segment)) continue;
-                names.add(segment);
-                var isClass = end == path.length();
-                if (isClass) {
-                    list.items.add(classItem(className));
-                } else {
-                    list.items.add(packageItem(segment));
-                }
-                if (list.items.size() > MAX_COMPLETION_ITEMS) {
-                    list.isIncomplete = true;
-                    return list;
-                }
+        var start = path.lastIndexOf('.');
+        var segments = classNames.nextSegments(path, MAX_COMPLETION_ITEMS + 1);
+        // The extra segment only tells us there are more than we can send
+        if (segments.size() > MAX_COMPLETION_ITEMS) {
+            list.isIncomplete = true;
+            segments = segments.subList(0, MAX_COMPLETION_ITEMS);
+        }
+        for (var segment : segments) {
+            if (classNames.contains(segment)) {
+                list.items.add(classItem(segment));
+            } else {
+                list.items.add(packageItem(segment.substring(start + 1)));
             }
         }
         return list;
@@ -576,6 +655,7 @@ public class CompletionProvider {
         var i = new CompletionItem();
         i.label = name;
         i.kind = CompletionItemKind.Module;
+        i.sortText = Relevance.sortText(false, Relevance.Priority.PACKAGE_MEMBER, i.label);
         return i;
     }
 
@@ -587,6 +667,7 @@ public class CompletionProvider {
         var data = new CompletionData();
         data.className = className;
         i.data = JsonHelper.GSON.toJsonTree(data);
+        i.sortText = Relevance.sortText(false, Relevance.Priority.NOT_IMPORTED_CLASS, i.label);
         return i;
     }
 
@@ -596,21 +677,24 @@ public class CompletionProvider {
         i.kind = CompletionItemKind.Snippet;
         i.insertText = snippet;
         i.insertTextFormat = InsertTextFormat.Snippet;
-        i.sortText = String.format("%02d%s", Priority.SNIPPET, i.label);
+        i.sortText = Relevance.sortText(false, Relevance.Priority.SNIPPET, i.label);
         return i;
     }
 
-    private CompletionItem item(CompileTask task, Element element) {
+    /** An item for element, which is a member of site, or null if it's a local or a static import */
+    private CompletionItem item(CompileTask task, Element element, TypeElement site) {
         if (element.getKind() == ElementKind.METHOD) throw new RuntimeException("method");
         var i = new CompletionItem();
         i.label = element.getSimpleName().toString();
         i.kind = kind(element);
         i.detail = element.toString();
         i.data = JsonHelper.GSON.toJsonTree(data(task, element, 1));
+        i.sortText = relevance.sortText(element, site);
         return i;
     }
 
-    private CompletionItem method(CompileTask task, List<ExecutableElement> overloads, boolean addParens) {
+    private CompletionItem method(
+            CompileTask task, List<ExecutableElement> overloads, boolean addParens, TypeElement site) {
         var first = overloads.get(0);
         var i = new CompletionItem();
         i.label = first.getSimpleName().toString();
@@ -618,6 +702,7 @@ public class CompletionProvider {
         i.detail = first.getReturnType() + " " + first;
         var data = data(task, first, overloads.size());
         i.data = JsonHelper.GSON.toJsonTree(data);
+        i.sortText = relevance.sortText(first, site);
         if (addParens) {
             if (overloads.size() == 1 && first.getParameters().isEmpty()) {
                 i.insertText = first.getSimpleName() + "()$0";
@@ -705,28 +790,10 @@ public class CompletionProvider {
         i.label = keyword;
         i.kind = CompletionItemKind.Keyword;
         i.detail = "keyword";
-        i.sortText = String.format("%02d%s", Priority.KEYWORD, i.label);
+        i.sortText = Relevance.sortText(false, Relevance.Priority.KEYWORD, i.label);
         return i;
     }
 
-    private static class Priority {
-        static int iota = 0;
-        static final int SNIPPET = iota;
-        static final int LOCAL = iota++;
-        static final int FIELD = iota++;
-        static final int INHERITED_FIELD = iota++;
-        static final int METHOD = iota++;
-        static final int INHERITED_METHOD = iota++;
-        static final int OBJECT_METHOD = iota++;
-        static final int INNER_CLASS = iota++;
-        static final int INHERITED_INNER_CLASS = iota++;
-        static final int IMPORTED_CLASS = iota++;
-        static final int NOT_IMPORTED_CLASS = iota++;
-        static final int KEYWORD = iota++;
-        static final int PACKAGE_MEMBER = iota++;
-        static final int CASE_LABEL = iota++;
-    }
-
     private void logCompletionTiming(Instant started, List<?> list, boolean isIncomplete) {
         var elapsedMs = Duration.between(started, Instant.now()).toMillis();
         if (isIncomplete) LOG.info(String.format("Found %d items (incomplete) in %,d ms", list.size(), elapsedMs));
@@ -0,0 +1,157 @@
+package org.javacs.completion;
+
+import com.sun.source.tree.Scope;
+import com.sun.source.util.Trees;
+import java.util.*;
+import java.util.logging.Logger;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+
+/**
+ * MemberCache remembers Elements.getAllMembers(type) for recently used types, which is slow for deep hierarchies like
+ * the JDK collections, because javac has to check which inherited members are overridden or hidden.
+ *
+ * <p>The members are javac symbols, which belong to the compiler that created them, and javac gives a class new member
+ * symbols each time it re-enters the source of the class. So a table is only reused if every class in the hierarchy
+ * still has the same declared members it had when the table was built. Classes from the class path and the JDK are
+ * never re-entered, so their tables last as long as the compiler, while workspace classes get a new table whenever
+ * their source is compiled again. When a javac context is dropped, clear() has to be called, or the tables would keep
+ * its symbols, and everything they refer to, alive.
+ */
+public class MemberCache {
+    static class Member {
+        final Element element;
+        final String name;
+        final boolean isStatic, isPublic;
+
+        Member(Element element) {
+            this.element = element;
+            this.name = element.getSimpleName().toString();
+            this.isStatic = element.getModifiers().contains(Modifier.STATIC);
+            this.isPublic = element.getModifiers().contains(Modifier.PUBLIC);
+        }
+    }
+
+    static class Table {
+        /** The members in the same order as getAllMembers */
+        final List<Member> members;
+        /** members by name */
+        final Map<String, List<Member>> named = new HashMap<>();
+        /** Whether the type and every class that encloses it are public, so public members are accessible anywhere */
+        final boolean isPublic;
+        /** Every class in the hierarchy of the type, and its declared members when the table was built */
+        private final List<TypeElement> hierarchy;
+
+        private final List<List<? extends Element>> declared;
+
+        private Table(Elements elements, TypeElement type, List<TypeElement> hierarchy) {
+            var members = new ArrayList<Member>();
+            for (var e : elements.getAllMembers(type)) {
+                var m = new Member(e);
+                members.add(m);
+                named.computeIfAbsent(m.name, __ -> new ArrayList<>()).add(m);
+            }
+            this.members = members;
+            this.isPublic = isPublic(type);
+            this.hierarchy = hierarchy;
+            this.declared = new ArrayList<>();
+            for (var t : hierarchy) {
+                declared.add(t.getEnclosedElements());
+            }
+        }
+
+        List<Member> named(CharSequence name) {
+            return named.getOrDefault(name.toString(), List.of());
+        }
+
+        /** trees.isAccessible(scope, member, type), skipping the check for public members of public types */
+        boolean isAccessible(Trees trees, Scope scope, Member member, DeclaredType type) {
+            if (isPublic && member.isPublic) return true;
+            return trees.isAccessible(scope, member.element, type);
+        }
+
+        private boolean isCurrent(List<TypeElement> hierarchy) {
+            if (!hierarchy.equals(this.hierarchy)) return false;
+            for (var i = 0; i < hierarchy.size(); i++) {
+                if (!sameElements(hierarchy.get(i).getEnclosedElements(), declared.get(i))) return false;
+            }
+            return true;
+        }
+    }
+
+    private static final int MAX_TABLES = 1_000;
+
+    /** Recently used tables in least-recently-used order */
+    private static final LinkedHashMap<TypeElement, Table> tables = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long hits, misses;
+
+    /** The members of type, which is a class of the compiler that elements belongs to. */
+    static synchronized Table members(Elements elements, TypeElement type) {
+        var hierarchy = hierarchy(type);
+        var table = tables.get(type);
+        if (table != null && table.isCurrent(hierarchy)) {
+            hits++;
+            return table;
+        }
+        misses++;
+        table = new Table(elements, type, hierarchy);
+        tables.put(type, table);
+        if (tables.size() > MAX_TABLES) {
+            var eldest = tables.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        if ((hits + misses) % 100 == 0) {
+            LOG.info(String.format("Member tables: %,d cached, %,d hits, %,d misses", tables.size(), hits, misses));
+        }
+        return table;
+    }
+
+    /** Forget every table, because a javac context has been dropped. */
+    public static synchronized void clear() {
+        tables.clear();
+    }
+
+    /** type and all its superclasses and interfaces, each one once */
+    private static List<TypeElement> hierarchy(TypeElement type) {
+        var found = new ArrayList<TypeElement>();
+        var visited = new HashSet<TypeElement>();
+        var todo = new ArrayDeque<TypeElement>();
+        todo.add(type);
+        while (!todo.isEmpty()) {
+            var next = todo.pop();
+            if (!visited.add(next)) continue;
+            found.add(next);
+            var supers = new ArrayList<TypeMirror>();
+            supers.add(next.getSuperclass());
+            supers.addAll(next.getInterfaces());
+            for (var s : supers) {
+                if (s.getKind() == TypeKind.DECLARED) {
+                    todo.add((TypeElement) ((DeclaredType) s).asElement());
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean sameElements(List<? extends Element> a, List<? extends Element> b) {
+        if (a.size() != b.size()) return false;
+        for (var i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isPublic(TypeElement type) {
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (!e.getModifiers().contains(Modifier.PUBLIC)) return false;
+        }
+        return true;
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
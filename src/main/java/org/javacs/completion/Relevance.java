@@ -0,0 +1,125 @@
+package org.javacs.completion;
+
+import javax.lang.model.element.*;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+/**
+ * Relevance sorts completions into buckets while we still have the compiler's view of them. Items whose type fits the
+ * type expected at the cursor come first. After that, locals come before members of the class, members of the class
+ * before inherited members, and so on. The bucket is written at the start of sortText, where TopCompletions finds it
+ * when it ranks the items.
+ */
+class Relevance {
+    static class Priority {
+        static int iota = 0;
+        static final int SNIPPET = iota;
+        static final int LOCAL = iota++;
+        static final int FIELD = iota++;
+        static final int INHERITED_FIELD = iota++;
+        static final int METHOD = iota++;
+        static final int INHERITED_METHOD = iota++;
+        static final int OBJECT_METHOD = iota++;
+        static final int INNER_CLASS = iota++;
+        static final int INHERITED_INNER_CLASS = iota++;
+        static final int IMPORTED_CLASS = iota++;
+        static final int NOT_IMPORTED_CLASS = iota++;
+        static final int KEYWORD = iota++;
+        static final int PACKAGE_MEMBER = iota++;
+        static final int CASE_LABEL = iota++;
+    }
+
+    /** The bucket of items that don't have one */
+    static final int LAST_BUCKET = 199;
+
+    /** Relevance when nothing in particular is expected at the cursor */
+    static final Relevance NONE = new Relevance(null, null);
+
+    private final Types types;
+    private final TypeMirror expected;
+
+    /** expected is the type of expression the cursor is in, like the type of the variable it initializes, or null */
+    Relevance(Types types, TypeMirror expected) {
+        this.types = types;
+        this.expected = isUseful(expected) ? expected : null;
+    }
+
+    /** sortText for element, which is a member of site, or a local or import if site is null */
+    String sortText(Element element, TypeElement site) {
+        return sortText(isExpected(element), priority(element, site), element.getSimpleName().toString());
+    }
+
+    static String sortText(boolean isExpected, int priority, String label) {
+        return String.format("%d%02d%s", isExpected ? 0 : 1, priority, label);
+    }
+
+    /** The bucket at the start of sortText, with smaller buckets first */
+    static int bucket(String sortText) {
+        if (sortText == null || sortText.length() < 3) return LAST_BUCKET;
+        var bucket = 0;
+        for (var i = 0; i < 3; i++) {
+            var c = sortText.charAt(i);
+            if (c < '0' || c > '9') return LAST_BUCKET;
+            bucket = bucket * 10 + (c - '0');
+        }
+        return bucket;
+    }
+
+    private boolean isExpected(Element element) {
+        if (expected == null) return false;
+        var type = element.asType();
+        if (type instanceof ExecutableType) {
+            type = ((ExecutableType) type).getReturnType();
+        }
+        if (element instanceof TypeElement || !isUseful(type)) return false;
+        return types.isAssignable(type, expected);
+    }
+
+    private static boolean isUseful(TypeMirror type) {
+        if (type == null) return false;
+        switch (type.getKind()) {
+            case ERROR:
+            case NONE:
+            case VOID:
+            case OTHER:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static int priority(Element element, TypeElement site) {
+        switch (element.getKind()) {
+            case LOCAL_VARIABLE:
+            case PARAMETER:
+            case EXCEPTION_PARAMETER:
+            case RESOURCE_VARIABLE:
+                return Priority.LOCAL;
+            case FIELD:
+            case ENUM_CONSTANT:
+                return isDeclaredIn(element, site) ? Priority.FIELD : Priority.INHERITED_FIELD;
+            case METHOD:
+                if (isObjectMethod(element)) return Priority.OBJECT_METHOD;
+                return isDeclaredIn(element, site) ? Priority.METHOD : Priority.INHERITED_METHOD;
+            case CLASS:
+            case INTERFACE:
+            case ENUM:
+            case ANNOTATION_TYPE:
+                if (!(element.getEnclosingElement() instanceof TypeElement)) return Priority.IMPORTED_CLASS;
+                return isDeclaredIn(element, site) ? Priority.INNER_CLASS : Priority.INHERITED_INNER_CLASS;
+            default:
+                return Priority.KEYWORD;
+        }
+    }
+
+    private static boolean isDeclaredIn(Element element, TypeElement site) {
+        return site != null && element.getEnclosingElement().equals(site);
+    }
+
+    private static boolean isObjectMethod(Element element) {
+        var owner = element.getEnclosingElement();
+        return owner instanceof TypeElement
+                && ((TypeElement) owner).getQualifiedName().contentEquals("java.lang.Object");
+    }
+}
@@ -43,11 +43,12 @@ class ScopeHelper {
             if (scope.getEnclosingClass() != null) {
                 var typeElement = scope.getEnclosingClass();
                 var typeType = (DeclaredType) typeElement.asType();
-                for (var member : elements.getAllMembers(typeElement)) {
-                    if (!filter.test(member.getSimpleName())) continue;
-                    if (!trees.isAccessible(scope, member, typeType)) continue;
-                    if (isStatic && !member.getModifiers().contains(Modifier.STATIC)) continue;
-                    list.add(member);
+                var members = MemberCache.members(elements, typeElement);
+                for (var member : members.members) {
+                    if (!filter.test(member.name)) continue;
+                    if (isStatic && !member.isStatic) continue;
+                    if (!members.isAccessible(trees, scope, member, typeType)) continue;
+                    list.add(member.element);
                 }
                 isStatic = isStatic || typeElement.getModifiers().contains(Modifier.STATIC);
             }
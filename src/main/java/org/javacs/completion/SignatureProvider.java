@@ -16,7 +16,6 @@ import java.util.StringJoiner;
 import java.util.function.Predicate;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
-import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.*;
@@ -112,12 +111,12 @@ public class SignatureProvider {
         var type = typeElement(trees.getTypeMirror(path));
         if (type == null) return List.of();
         var list = new ArrayList<ExecutableElement>();
-        for (var member : task.task.getElements().getAllMembers(type)) {
-            if (member.getKind() != ElementKind.METHOD) continue;
-            if (!member.getSimpleName().contentEquals(method.getIdentifier())) continue;
-            if (isStatic != member.getModifiers().contains(Modifier.STATIC)) continue;
-            if (!trees.isAccessible(scope, member, (DeclaredType) type.asType())) continue;
-            list.add((ExecutableElement) member);
+        var members = MemberCache.members(task.task.getElements(), type);
+        for (var member : members.named(method.getIdentifier())) {
+            if (member.element.getKind() != ElementKind.METHOD) continue;
+            if (isStatic != member.isStatic) continue;
+            if (!members.isAccessible(trees, scope, member, (DeclaredType) type.asType())) continue;
+            list.add((ExecutableElement) member.element);
         }
         return list;
     }
@@ -140,10 +139,11 @@ public class SignatureProvider {
         var scope = trees.getScope(path);
         var type = (TypeElement) trees.getElement(path);
         var list = new ArrayList<ExecutableElement>();
-        for (var member : task.task.getElements().getAllMembers(type)) {
-            if (member.getKind() != ElementKind.CONSTRUCTOR) continue;
-            if (!trees.isAccessible(scope, member, (DeclaredType) type.asType())) continue;
-            list.add((ExecutableElement) member);
+        var members = MemberCache.members(task.task.getElements(), type);
+        for (var member : members.named("<init>")) {
+            if (member.element.getKind() != ElementKind.CONSTRUCTOR) continue;
+            if (!members.isAccessible(trees, scope, member, (DeclaredType) type.asType())) continue;
+            list.add((ExecutableElement) member.element);
         }
         return list;
     }
@@ -0,0 +1,117 @@
+package org.javacs.completion;
+
+import java.util.*;
+import org.javacs.lsp.CompletionItem;
+import org.javacs.lsp.CompletionList;
+
+/**
+ * TopCompletions picks the best k completions, so the item the user wants is in the first response, instead of
+ * whichever items discovery happened to find first. Items are ranked by how well they match the identifier, then by
+ * their Relevance bucket, then by how often their name appears in the file.
+ */
+class TopCompletions {
+    private static class Candidate {
+        final CompletionItem item;
+        final int match, bucket, uses;
+
+        Candidate(CompletionItem item, int match, int bucket, int uses) {
+            this.item = item;
+            this.match = match;
+            this.bucket = bucket;
+            this.uses = uses;
+        }
+    }
+
+    private static final Comparator<Candidate> BEST_FIRST =
+            Comparator.<Candidate>comparingInt(c -> c.match)
+                    .thenComparingInt(c -> c.bucket)
+                    .thenComparingInt(c -> -c.uses)
+                    .thenComparing(c -> c.item.label);
+
+    /**
+     * The best k of candidates, in order. partial is the identifier being completed, at contents[start, start +
+     * partial.length()). The items are copies, with sortText set to their rank, so the candidates can be ranked again.
+     */
+    static CompletionList select(CompletionList candidates, String contents, int start, String partial, int k) {
+        var uses = uses(candidates.items, contents, start, partial.length());
+        // The worst of the best k so far is at the head, so each candidate only has to beat it
+        var best = new PriorityQueue<Candidate>(k + 1, BEST_FIRST.reversed());
+        for (var i : candidates.items) {
+            var c = new Candidate(i, match(i.label, partial), Relevance.bucket(i.sortText), uses.getOrDefault(i.label, 0));
+            if (best.size() < k) {
+                best.add(c);
+            } else if (BEST_FIRST.compare(c, best.peek()) < 0) {
+                best.poll();
+                best.add(c);
+            }
+        }
+        var sorted = new ArrayList<Candidate>(best);
+        sorted.sort(BEST_FIRST);
+        // Clients compare sortText as strings, so every rank is padded to the width of the largest one
+        var width = Math.max(3, String.valueOf(sorted.size() - 1).length());
+        var format = "%0" + width + "d";
+        var items = new ArrayList<CompletionItem>();
+        for (var c : sorted) {
+            var copy = copy(c.item);
+            copy.sortText = String.format(format, items.size());
+            items.add(copy);
+        }
+        var isIncomplete = candidates.isIncomplete || candidates.items.size() > k;
+        return new CompletionList(isIncomplete, items);
+    }
+
+    /** 0 for an exact match, 1 for a prefix, and 2 for anything else, like camel humps or keywords after Foo. */
+    private static int match(String label, String partial) {
+        if (label.equals(partial)) return 0;
+        if (label.startsWith(partial)) return 1;
+        return 2;
+    }
+
+    /** How many times each label appears as an identifier in contents, not counting the one being completed */
+    private static Map<String, Integer> uses(List<CompletionItem> items, String contents, int start, int length) {
+        var labels = new HashSet<String>();
+        for (var i : items) {
+            labels.add(i.label);
+        }
+        var uses = new HashMap<String, Integer>();
+        var i = 0;
+        while (i < contents.length()) {
+            if (!Character.isJavaIdentifierStart(contents.charAt(i))) {
+                i++;
+                continue;
+            }
+            var end = i + 1;
+            while (end < contents.length() && Character.isJavaIdentifierPart(contents.charAt(end))) {
+                end++;
+            }
+            if (i != start || end != start + length) {
+                var id = contents.substring(i, end);
+                if (labels.contains(id)) {
+                    uses.merge(id, 1, Integer::sum);
+                }
+            }
+            i = end;
+        }
+        return uses;
+    }
+
+    private static CompletionItem copy(CompletionItem item) {
+        var i = new CompletionItem();
+        i.label = item.label;
+        i.kind = item.kind;
+        i.detail = item.detail;
+        i.documentation = item.documentation;
+        i.deprecated = item.deprecated;
+        i.preselect = item.preselect;
+        i.sortText = item.sortText;
+        i.filterText = item.filterText;
+        i.insertText = item.insertText;
+        i.insertTextFormat = item.insertTextFormat;
+        i.textEdit = item.textEdit;
+        i.additionalTextEdits = item.additionalTextEdits;
+        i.commitCharacters = item.commitCharacters;
+        i.command = item.command;
+        i.data = item.data;
+        return i;
+    }
+}
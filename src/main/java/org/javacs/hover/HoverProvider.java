@@ -6,12 +6,14 @@ import com.sun.source.util.*;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.logging.Logger;
 import javax.lang.model.element.*;
 import org.javacs.CompileTask;
 import org.javacs.CompilerProvider;
 import org.javacs.CompletionData;
+import org.javacs.DocIndex;
 import org.javacs.FindHelper;
 import org.javacs.JsonHelper;
 import org.javacs.MarkdownHelper;
@@ -47,11 +49,21 @@ public class HoverProvider {
     public void resolveCompletionItem(CompletionItem item) {
         if (item.data == null || item.data == JsonNull.INSTANCE) return;
         var data = JsonHelper.GSON.fromJson(item.data, CompletionData.class);
+        var indexed = compiler.findDocs(data.className, data.memberName, data.erasedParameterTypes);
+        if (indexed.isPresent()) {
+            resolveDetail(item, data, indexed.get().detail);
+            if (!indexed.get().markdown.isEmpty()) {
+                item.documentation = MarkdownHelper.asMarkupContent(indexed.get().markdown);
+            }
+            return;
+        }
         var source = compiler.findAnywhere(data.className);
         if (source.isEmpty()) return;
         var task = compiler.parse(source.get());
         var tree = findItem(task, data);
-        resolveDetail(item, data, tree);
+        if (tree instanceof MethodTree) {
+            resolveDetail(item, data, DocIndex.detail((MethodTree) tree));
+        }
         var path = Trees.instance(task.task).getPath(task.root, tree);
         var docTree = DocTrees.instance(task.task).getDocCommentTree(path);
         if (docTree == null) return;
@@ -59,24 +71,11 @@ public class HoverProvider {
     }
 
     // TODO consider showing actual source code instead of just types and names
-    private void resolveDetail(CompletionItem item, CompletionData data, Tree tree) {
-        if (tree instanceof MethodTree) {
-            var method = (MethodTree) tree;
-            var parameters = new StringJoiner(", ");
-            for (var p : method.getParameters()) {
-                parameters.add(p.getType() + " " + p.getName());
-            }
-            item.detail = method.getReturnType() + " " + method.getName() + "(" + parameters + ")";
-            if (!method.getThrows().isEmpty()) {
-                var exceptions = new StringJoiner(", ");
-                for (var e : method.getThrows()) {
-                    exceptions.add(e.toString());
-                }
-                item.detail += " throws " + exceptions;
-            }
-            if (data.plusOverloads != 0) {
-                item.detail += " (+" + data.plusOverloads + " overloads)";
-            }
+    private void resolveDetail(CompletionItem item, CompletionData data, String detail) {
+        if (detail == null) return;
+        item.detail = detail;
+        if (data.plusOverloads != 0) {
+            item.detail += " (+" + data.plusOverloads + " overloads)";
         }
     }
 
@@ -94,6 +93,8 @@ public class HoverProvider {
     }
 
     private String docs(CompileTask task, Element element) {
+        var indexed = indexedDocs(task, element);
+        if (indexed.isPresent()) return indexed.get().markdown;
         if (element instanceof TypeElement) {
             var type = (TypeElement) element;
             var className = type.getQualifiedName().toString();
@@ -109,7 +110,7 @@ public class HoverProvider {
             var file = compiler.findAnywhere(className);
             if (file.isEmpty()) return "";
             var parse = compiler.parse(file.get());
-            var tree = FindHelper.findType(parse, className);
+            var tree = FindHelper.findField(parse, className, field.getSimpleName().toString());
             return docs(parse, tree);
         } else if (element instanceof ExecutableElement) {
             var method = (ExecutableElement) element;
@@ -127,6 +128,26 @@ public class HoverProvider {
         }
     }
 
+    /** The docs of a library element, if it's in the index */
+    private Optional<DocIndex.Doc> indexedDocs(CompileTask task, Element element) {
+        if (element instanceof TypeElement) {
+            var type = (TypeElement) element;
+            return compiler.findDocs(type.getQualifiedName().toString(), null, null);
+        } else if (element.getKind() == ElementKind.FIELD) {
+            var type = (TypeElement) element.getEnclosingElement();
+            var className = type.getQualifiedName().toString();
+            return compiler.findDocs(className, element.getSimpleName().toString(), null);
+        } else if (element instanceof ExecutableElement) {
+            var method = (ExecutableElement) element;
+            var type = (TypeElement) method.getEnclosingElement();
+            var className = type.getQualifiedName().toString();
+            var erasedParameterTypes = FindHelper.erasedParameterTypes(task, method);
+            return compiler.findDocs(className, method.getSimpleName().toString(), erasedParameterTypes);
+        } else {
+            return Optional.empty();
+        }
+    }
+
     private String docs(ParseTask task, Tree tree) {
         var path = Trees.instance(task.task).getPath(task.root, tree);
         var docTree = DocTrees.instance(task.task).getDocCommentTree(path);
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 import org.javacs.CompilerProvider;
+import org.javacs.ParallelScan;
 import org.javacs.ParseTask;
 import org.javacs.lsp.SymbolInformation;
 
@@ -18,25 +19,21 @@ public class SymbolProvider {
 
     public List<SymbolInformation> findSymbols(String query, int limit) {
         LOG.info(String.format("Searching for `%s`...", query));
+        var files = new ArrayList<Path>();
+        compiler.search(query).forEach(files::add);
         var result = new ArrayList<SymbolInformation>();
-        var checked = 0;
-        var parsed = 0;
-        for (var file : compiler.search(query)) {
-            checked++;
-            // Parse the file and check class members for matches
-            LOG.info(String.format("...%s contains text matches", file.getFileName()));
-            var task = compiler.parse(file);
-            var symbols = findSymbolsMatching(task, query);
-            parsed++;
-            // If we confirm matches, add them to the results
-            if (symbols.size() > 0) {
-                LOG.info(String.format("...found %d occurrences", symbols.size()));
-            }
-            result.addAll(symbols);
-            // If results are full, stop
-            if (result.size() >= limit) break;
-        }
-
+        // Parse the files and check class members for matches on every core, but add the results in search order
+        ParallelScan.scan(
+                files,
+                file -> findSymbolsMatching(compiler.parse(file), query),
+                symbols -> {
+                    if (symbols.size() > 0) {
+                        LOG.info(String.format("...found %d occurrences", symbols.size()));
+                    }
+                    result.addAll(symbols);
+                    // If results are full, stop
+                    return result.size() < limit;
+                });
         return result;
     }
 
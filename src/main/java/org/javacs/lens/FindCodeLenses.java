@@ -10,8 +10,8 @@ import java.util.Objects;
 import org.javacs.FileStore;
 import org.javacs.lsp.CodeLens;
 import org.javacs.lsp.Command;
-import org.javacs.lsp.Position;
 import org.javacs.lsp.Range;
+import org.javacs.markup.RangeHelper;
 
 class FindCodeLenses extends TreeScanner<Void, List<CodeLens>> {
     private final JavacTask task;
@@ -112,13 +112,8 @@ class FindCodeLenses extends TreeScanner<Void, List<CodeLens>> {
 
     private Range range(Tree t) {
         var pos = Trees.instance(task).getSourcePositions();
-        var lines = root.getLineMap();
         var start = pos.getStartPosition(root, t);
         var end = pos.getEndPosition(root, t);
-        var startLine = (int) lines.getLineNumber(start);
-        var startColumn = (int) lines.getColumnNumber(start);
-        var endLine = (int) lines.getLineNumber(end);
-        var endColumn = (int) lines.getColumnNumber(end);
-        return new Range(new Position(startLine - 1, startColumn - 1), new Position(endLine - 1, endColumn - 1));
+        return RangeHelper.range(root, start, end);
     }
 }
@@ -0,0 +1,47 @@
+package org.javacs.lsp;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * CancelToken is flipped when the client sends $/cancelRequest for a request that has already started. The request
+ * that is running on the current thread can be found with CancelToken.current(), and long-running work should call
+ * check() periodically so it stops once nobody is waiting for the answer.
+ */
+public class CancelToken {
+    /** The token of work that isn't associated with any request, which is never cancelled. */
+    public static final CancelToken NONE = new CancelToken();
+
+    private static final ThreadLocal<CancelToken> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private volatile boolean cancelled;
+
+    /** The token of the request that is running on the current thread. */
+    public static CancelToken current() {
+        return CURRENT.get();
+    }
+
+    /** Run work with token as the current token of this thread. */
+    public static void run(CancelToken token, Runnable work) {
+        var previous = CURRENT.get();
+        CURRENT.set(token);
+        try {
+            work.run();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public void cancel() {
+        if (this == NONE) throw new IllegalStateException("NONE can't be cancelled");
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Throw CancellationException if this token has been cancelled. */
+    public void check() {
+        if (cancelled) throw new CancellationException();
+    }
+}
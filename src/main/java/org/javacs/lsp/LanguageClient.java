@@ -10,4 +10,9 @@ public interface LanguageClient {
     void registerCapability(String method, JsonElement options);
 
     void customNotification(String method, JsonElement params);
+
+    /** Run notifications, holding back the messages they send so they reach the client together. */
+    default void batch(Runnable notifications) {
+        notifications.run();
+    }
 }
@@ -115,6 +115,4 @@ public class LanguageServer {
     public List<DocumentLink> documentLink(DocumentLinkParams params) {
         throw new RuntimeException("Unimplemented");
     }
-
-    public void doAsyncWork() {}
 }
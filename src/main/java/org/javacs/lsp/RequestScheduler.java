@@ -0,0 +1,172 @@
+package org.javacs.lsp;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * RequestScheduler runs read-only requests concurrently on a pool of worker threads, and everything else on the
+ * dispatching thread. Everything else acts as a barrier: it waits for the reads of the same document, and the reads
+ * that look at many files, that were submitted before it to finish, and reads submitted after it don't start until
+ * it's done. Barriers that aren't about one document, like didChangeConfiguration, wait for every read.
+ */
+class RequestScheduler {
+    /** Requests that only look at the workspace, and can safely run at the same time as each other */
+    static final Set<String> READ_ONLY =
+            Set.of(
+                    "textDocument/hover",
+                    "textDocument/documentSymbol",
+                    "textDocument/foldingRange",
+                    "textDocument/codeLens",
+                    "textDocument/documentLink",
+                    "textDocument/signatureHelp",
+                    "textDocument/definition",
+                    "textDocument/references",
+                    "workspace/symbol");
+
+    /** Reads whose answer can come from any file, so every barrier has to wait for them */
+    static final Set<String> WORKSPACE_READS =
+            Set.of("textDocument/definition", "textDocument/references", "workspace/symbol");
+
+    static class Metrics {
+        /** Number of requests that have been submitted but haven't started running */
+        final AtomicInteger queued = new AtomicInteger();
+        /** Number of requests that have finished */
+        final AtomicLong count = new AtomicLong();
+        /** Total time between submitting and finishing, over all requests that have finished */
+        final AtomicLong totalNanos = new AtomicLong();
+        /** Longest time between submitting and finishing */
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Duration averageLatency() {
+            var n = count.get();
+            if (n == 0) return Duration.ZERO;
+            return Duration.ofNanos(totalNanos.get() / n);
+        }
+
+        Duration maxLatency() {
+            return Duration.ofNanos(maxNanos.get());
+        }
+    }
+
+    private static class Read {
+        /** The document the read is about, or null if it looks at the whole workspace */
+        final String document;
+
+        final Future<?> future;
+
+        Read(String document, Future<?> future) {
+            this.document = document;
+            this.future = future;
+        }
+    }
+
+    private final ExecutorService readers;
+    private final List<Read> inFlight = new ArrayList<>();
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+    RequestScheduler(int threads) {
+        this.readers = Executors.newFixedThreadPool(threads, RequestScheduler::daemon);
+    }
+
+    private static Thread daemon(Runnable r) {
+        var t = new Thread(r, "reader-request");
+        t.setDaemon(true);
+        return t;
+    }
+
+    void submit(String method, Runnable work) {
+        submit(method, null, work);
+    }
+
+    /**
+     * Schedule work to be run, either on a worker thread or the current thread, depending on the kind of method.
+     * document is the uri of the document the request is about, or null if it isn't about one document.
+     */
+    void submit(String method, String document, Runnable work) {
+        if (READ_ONLY.contains(method)) {
+            read(method, WORKSPACE_READS.contains(method) ? null : document, work);
+        } else {
+            barrier(method, document, work);
+        }
+    }
+
+    private void read(String method, String document, Runnable work) {
+        inFlight.removeIf(r -> r.future.isDone());
+        var m = metrics(method);
+        var submitted = System.nanoTime();
+        m.queued.incrementAndGet();
+        Runnable measured =
+                () -> {
+                    m.queued.decrementAndGet();
+                    try {
+                        work.run();
+                    } finally {
+                        record(method, m, submitted);
+                    }
+                };
+        inFlight.add(new Read(document, readers.submit(measured)));
+    }
+
+    private void barrier(String method, String document, Runnable work) {
+        var m = metrics(method);
+        var submitted = System.nanoTime();
+        m.queued.incrementAndGet();
+        drain(document);
+        m.queued.decrementAndGet();
+        try {
+            work.run();
+        } finally {
+            record(method, m, submitted);
+        }
+    }
+
+    /**
+     * Wait for the reads of document, and the reads of the whole workspace, that have been submitted so far to finish.
+     * If document is null, wait for all reads.
+     */
+    void drain(String document) {
+        var it = inFlight.iterator();
+        while (it.hasNext()) {
+            var r = it.next();
+            if (document != null && r.document != null && !document.equals(r.document)) continue;
+            try {
+                r.future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+            it.remove();
+        }
+    }
+
+    void shutdown() {
+        readers.shutdownNow();
+    }
+
+    Metrics metrics(String method) {
+        return metrics.computeIfAbsent(method, __ -> new Metrics());
+    }
+
+    private void record(String method, Metrics m, long submitted) {
+        var elapsed = System.nanoTime() - submitted;
+        m.count.incrementAndGet();
+        m.totalNanos.addAndGet(elapsed);
+        m.maxNanos.accumulateAndGet(elapsed, Math::max);
+        LOG.fine(
+                String.format(
+                        "...%s finished in %,d ms (%d more queued, average %,d ms)",
+                        method,
+                        Duration.ofNanos(elapsed).toMillis(),
+                        m.queued.get(),
+                        m.averageLatency().toMillis()));
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
@@ -0,0 +1,144 @@
+package org.javacs.lsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * WireReader splits the stream from the client into messages, using the Content-Length header in front of each one. It
+ * reads the stream in large blocks, and decodes each message from UTF-8 exactly once.
+ */
+class WireReader {
+    private static final byte[] CONTENT_LENGTH = "Content-Length:".getBytes(StandardCharsets.US_ASCII);
+
+    /** parseContentLength(...) of a Content-Length header that isn't a number */
+    private static final int BAD_LENGTH = -2;
+
+    private final InputStream in;
+    /** Bytes that have been read from in, but not consumed yet, are buffer[start:end] */
+    private final byte[] buffer;
+
+    private int start, end;
+
+    WireReader(InputStream in) {
+        this(in, 64 * 1024);
+    }
+
+    WireReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Read the next message, or throw EndOfStream if the client has closed the stream. If the headers are malformed,
+     * they are consumed before throwing, so the next call starts at the following message.
+     */
+    String next() {
+        var contentLength = -1;
+        while (true) {
+            var lineEnd = nextLineEnd();
+            // If header is empty, next line is the start of the message
+            if (lineEnd == start) {
+                start = lineEnd + 2;
+                if (contentLength == BAD_LENGTH) throw new RuntimeException("Bad Content-Length header");
+                return readBody(contentLength);
+            }
+            // If header contains length, save it
+            var maybeLength = parseContentLength(start, lineEnd);
+            if (maybeLength != -1) contentLength = maybeLength;
+            start = lineEnd + 2;
+        }
+    }
+
+    /** Find the \r\n that ends the header line starting at start, reading more of the stream if necessary. */
+    private int nextLineEnd() {
+        var i = start;
+        while (true) {
+            for (; i + 1 < end; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') return i;
+            }
+            var shift = start;
+            fill();
+            i -= shift - start;
+        }
+    }
+
+    private int parseContentLength(int from, int to) {
+        if (to - from < CONTENT_LENGTH.length) return -1;
+        for (var i = 0; i < CONTENT_LENGTH.length; i++) {
+            if (buffer[from + i] != CONTENT_LENGTH[i]) return -1;
+        }
+        var length = 0;
+        for (var i = from + CONTENT_LENGTH.length; i < to; i++) {
+            var b = buffer[i];
+            if (b == ' ') continue;
+            if (b < '0' || b > '9') return BAD_LENGTH;
+            length = length * 10 + (b - '0');
+        }
+        return length;
+    }
+
+    private String readBody(int length) {
+        if (length == -1) throw new RuntimeException("Message has no Content-Length header");
+        // Eat whitespace
+        // Have observed problems with extra \r\n sequences from VSCode
+        while (true) {
+            if (start == end) fill();
+            if (!Character.isWhitespace(buffer[start])) break;
+            start++;
+        }
+        // Short messages are decoded straight from the buffer
+        if (length <= buffer.length) {
+            while (end - start < length) {
+                fill();
+            }
+            var body = new String(buffer, start, length, StandardCharsets.UTF_8);
+            start += length;
+            return body;
+        }
+        // Long messages are copied into an array of exactly the right size
+        var body = new byte[length];
+        var buffered = end - start;
+        System.arraycopy(buffer, start, body, 0, buffered);
+        start = end = 0;
+        try {
+            var read = in.readNBytes(body, buffered, length - buffered);
+            if (read < length - buffered) throw endOfStream();
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            throw new LSP.EndOfStream();
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /** Move the unconsumed bytes to the front of buffer, and read at least one more byte after them. */
+    private void fill() {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        // There's no way to find the start of the next message, so give up on the connection
+        if (end == buffer.length) {
+            LOG.severe("Header is longer than " + buffer.length + " bytes");
+            throw new LSP.EndOfStream();
+        }
+        try {
+            var read = in.read(buffer, end, buffer.length - end);
+            if (read == -1) throw endOfStream();
+            end += read;
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            throw new LSP.EndOfStream();
+        }
+    }
+
+    private static LSP.EndOfStream endOfStream() {
+        LOG.warning("Stream from client has been closed, throwing kill exception...");
+        return new LSP.EndOfStream();
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
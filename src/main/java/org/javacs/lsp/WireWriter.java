@@ -0,0 +1,130 @@
+package org.javacs.lsp;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * WireWriter serializes outgoing messages straight into a reusable byte buffer, and fills in the Content-Length header
+ * afterwards. Each thread has its own WireWriter, so messages can be serialized concurrently, and only the final write
+ * to the client is synchronized.
+ */
+class WireWriter {
+    private static final ThreadLocal<WireWriter> CURRENT = ThreadLocal.withInitial(WireWriter::new);
+
+    /** The header is written right-aligned into this much space, in front of each message */
+    private static final int HEADER_SPACE = "Content-Length: 2147483647\r\n\r\n".length();
+
+    /** Buffers that grow larger than this while sending a big message are thrown away afterwards */
+    private static final int MAX_RETAINED = 1024 * 1024;
+
+    private byte[] bytes = new byte[8 * 1024];
+    /** bytes[start:size] holds the messages that have been written but not sent */
+    private int start, size;
+    /** If holds > 0, flush(_) is postponed until the matching release(_) */
+    private int holds;
+
+    /** Encodes into bytes, and is replaced after a failed message, so characters it buffered aren't sent later */
+    private Writer chars = newWriter();
+
+    private Writer newWriter() {
+        return new OutputStreamWriter(new Sink(), StandardCharsets.UTF_8);
+    }
+
+    private class Sink extends OutputStream {
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+    }
+
+    /** The WireWriter of the current thread. */
+    static WireWriter current() {
+        return CURRENT.get();
+    }
+
+    /** Append the message `head + json(body) + "}"`, with a Content-Length header in front. */
+    void message(Gson gson, String head, Object body) {
+        var messageStart = size;
+        ensureCapacity(size + HEADER_SPACE);
+        size += HEADER_SPACE;
+        var bodyStart = size;
+        try {
+            chars.write(head);
+            gson.toJson(body, chars);
+            chars.write('}');
+            chars.flush();
+        } catch (IOException e) {
+            discard(messageStart);
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            discard(messageStart);
+            throw e;
+        }
+        var header = ("Content-Length: " + (size - bodyStart) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        var gap = HEADER_SPACE - header.length;
+        if (messageStart == 0) {
+            // The first message can start wherever its header does
+            System.arraycopy(header, 0, bytes, gap, header.length);
+            start = gap;
+        } else {
+            // Later messages have to close the gap left by the unused header space, so all messages are contiguous
+            System.arraycopy(bytes, bodyStart, bytes, messageStart + header.length, size - bodyStart);
+            System.arraycopy(header, 0, bytes, messageStart, header.length);
+            size -= gap;
+        }
+    }
+
+    /** Don't leave half a message behind to be sent with the next one, in bytes or in the encoder's buffer */
+    private void discard(int messageStart) {
+        size = messageStart;
+        chars = newWriter();
+    }
+
+    /** Postpone sending messages until release(_) is called. */
+    void hold() {
+        holds++;
+    }
+
+    /** Undo hold(), and send all the messages that were postponed. */
+    void release(OutputStream client) {
+        holds--;
+        flush(client);
+    }
+
+    /** Send all messages to client in a single write. */
+    void flush(OutputStream client) {
+        if (holds > 0 || size == start) return;
+        try {
+            // Requests may finish on different threads, so don't let their messages interleave
+            synchronized (client) {
+                client.write(bytes, start, size - start);
+                client.flush();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            start = size = 0;
+            if (bytes.length > MAX_RETAINED) {
+                bytes = new byte[8 * 1024];
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= bytes.length) return;
+        bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+    }
+}
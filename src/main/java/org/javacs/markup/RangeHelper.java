@@ -1,18 +1,23 @@
 package org.javacs.markup;
 
 import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.LineMap;
 import org.javacs.lsp.Position;
 import org.javacs.lsp.Range;
 
-class RangeHelper {
-    static Range range(CompilationUnitTree root, long start, long end) {
-        var lines = root.getLineMap();
-        var startLine = (int) lines.getLineNumber(start);
-        var startColumn = (int) lines.getColumnNumber(start);
-        var startPos = new Position(startLine - 1, startColumn - 1);
-        var endLine = (int) lines.getLineNumber(end);
-        var endColumn = (int) lines.getColumnNumber(end);
-        var endPos = new Position(endLine - 1, endColumn - 1);
-        return new Range(startPos, endPos);
+public class RangeHelper {
+    public static Range range(CompilationUnitTree root, long start, long end) {
+        return range(root.getLineMap(), start, end);
+    }
+
+    /** Convert offsets to a range, using one binary search of lines for each end. */
+    public static Range range(LineMap lines, long start, long end) {
+        return new Range(position(lines, start), position(lines, end));
+    }
+
+    public static Position position(LineMap lines, long offset) {
+        var line = lines.getLineNumber(offset);
+        var column = offset - lines.getStartPosition(line);
+        return new Position((int) line - 1, (int) column);
     }
 }
@@ -16,8 +16,8 @@ import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeMirror;
 import org.javacs.lsp.Position;
-import org.javacs.lsp.Range;
 import org.javacs.lsp.TextEdit;
+import org.javacs.markup.RangeHelper;
 
 class EditHelper {
     final JavacTask task;
@@ -28,16 +28,9 @@ class EditHelper {
 
     TextEdit removeTree(CompilationUnitTree root, Tree remove) {
         var pos = Trees.instance(task).getSourcePositions();
-        var lines = root.getLineMap();
         var start = pos.getStartPosition(root, remove);
         var end = pos.getEndPosition(root, remove);
-        var startLine = (int) lines.getLineNumber(start);
-        var startColumn = (int) lines.getColumnNumber(start);
-        var startPos = new Position(startLine - 1, startColumn - 1);
-        var endLine = (int) lines.getLineNumber(end);
-        var endColumn = (int) lines.getColumnNumber(end);
-        var endPos = new Position(endLine - 1, endColumn - 1);
-        var range = new Range(startPos, endPos);
+        var range = RangeHelper.range(root, start, end);
         return new TextEdit(range, "");
     }
 
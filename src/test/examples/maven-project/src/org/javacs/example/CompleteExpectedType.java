@@ -0,0 +1,11 @@
+package org.javacs.example;
+
+class CompleteExpectedType {
+    void test(String completeName, int completeCount) {
+        String s = complete
+    }
+
+    String name(int completeCount, String completeName) {
+        return complete
+    }
+}
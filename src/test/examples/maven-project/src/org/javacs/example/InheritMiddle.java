@@ -0,0 +1,3 @@
+package org.javacs.example;
+
+class InheritMiddle extends InheritTop {}
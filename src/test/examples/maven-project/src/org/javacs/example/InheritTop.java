@@ -0,0 +1,5 @@
+package org.javacs.example;
+
+class InheritTop {
+    void inherited() {}
+}
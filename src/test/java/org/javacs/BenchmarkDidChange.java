@@ -0,0 +1,66 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.javacs.lsp.*;
+import org.openjdk.jmh.annotations.*;
+
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class BenchmarkDidChange {
+
+    @State(Scope.Benchmark)
+    public static class DocumentState {
+        /** A burst of single-character edits before javac reads the document, like a user typing */
+        static final int EDITS = 50;
+
+        @Param({"1000", "20000"})
+        public int lineCount;
+
+        public Path file = Path.of("/workspace/src/example/Generated.java");
+        public int version;
+
+        @Setup
+        public void open() {
+            var text = new StringBuilder("package example;\n\nclass Generated {\n");
+            for (var i = 0; i < lineCount; i++) {
+                text.append("    static final int FIELD_").append(i).append(" = ").append(i).append(";\n");
+            }
+            text.append("}\n");
+            var open = new DidOpenTextDocumentParams();
+            open.textDocument.uri = file.toUri();
+            open.textDocument.version = version++;
+            open.textDocument.text = text.toString();
+            FileStore.open(open);
+        }
+
+        @TearDown
+        public void close() {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    @Benchmark
+    public String typeInMiddle(DocumentState state) {
+        var line = state.lineCount / 2;
+        for (var i = 0; i < DocumentState.EDITS; i++) {
+            var change = new DidChangeTextDocumentParams();
+            change.textDocument.uri = state.file.toUri();
+            change.textDocument.version = state.version++;
+            // Alternately type and delete a character, so the document stays the same size
+            var edit = new TextDocumentContentChangeEvent();
+            var typing = i % 2 == 0;
+            edit.range = new Range(new Position(line, 4), new Position(line, typing ? 4 : 5));
+            edit.rangeLength = typing ? 0 : 1;
+            edit.text = typing ? "x" : "";
+            change.contentChanges.add(edit);
+            FileStore.change(change);
+        }
+        return FileStore.contents(state.file);
+    }
+}
@@ -0,0 +1,58 @@
+package org.javacs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class BenchmarkFileStore {
+
+    @State(Scope.Benchmark)
+    public static class WorkspaceState {
+        /** Each package holds the same number of files, so the result of list(...) is the same size in every run */
+        static final int FILES_PER_PACKAGE = 10;
+
+        @Param({"100", "1000", "10000", "50000"})
+        public int fileCount;
+
+        public Path workspaceRoot;
+
+        @Setup
+        public void createWorkspace() throws IOException {
+            workspaceRoot = Files.createTempDirectory("benchmark-file-store");
+            for (var i = 0; i < fileCount; i++) {
+                var packageName = "example.p" + (i / FILES_PER_PACKAGE);
+                var dir = workspaceRoot.resolve(packageName.replace('.', '/'));
+                Files.createDirectories(dir);
+                var className = "Example" + i;
+                var contents = "package " + packageName + ";\n\nclass " + className + " {}\n";
+                Files.writeString(dir.resolve(className + ".java"), contents);
+            }
+            FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+        }
+
+        @TearDown
+        public void deleteWorkspace() throws IOException {
+            FileStore.setWorkspaceRoots(Set.of());
+            try (var walk = Files.walk(workspaceRoot)) {
+                for (var f : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(f);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Path> list(WorkspaceState state) {
+        return FileStore.list("example.p0");
+    }
+}
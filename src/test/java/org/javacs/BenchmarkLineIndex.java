@@ -0,0 +1,60 @@
+package org.javacs;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.javacs.lsp.DidCloseTextDocumentParams;
+import org.javacs.lsp.DidOpenTextDocumentParams;
+import org.javacs.lsp.Range;
+import org.javacs.markup.RangeHelper;
+import org.openjdk.jmh.annotations.*;
+
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class BenchmarkLineIndex {
+
+    @State(Scope.Benchmark)
+    public static class DocumentState {
+        static final int LINES = 20_000;
+
+        /** Converting a position near the end of a document should cost the same as one near the start */
+        @Param({"10", "10000", "19990"})
+        public int line;
+
+        public Path file = Path.of("/workspace/src/example/Generated.java");
+        public int offset;
+
+        @Setup
+        public void open() {
+            var text = new StringBuilder("package example;\n\nclass Generated {\n");
+            for (var i = 0; i < LINES; i++) {
+                text.append("    static final int FIELD_").append(i).append(" = ").append(i).append(";\n");
+            }
+            text.append("}\n");
+            var open = new DidOpenTextDocumentParams();
+            open.textDocument.uri = file.toUri();
+            open.textDocument.text = text.toString();
+            FileStore.open(open);
+            offset = FileStore.offset(file, line, 5);
+        }
+
+        @TearDown
+        public void close() {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    @Benchmark
+    public int offset(DocumentState state) {
+        return FileStore.offset(state.file, state.line, 5);
+    }
+
+    @Benchmark
+    public Range range(DocumentState state) {
+        return RangeHelper.range(FileStore.lineIndex(state.file), state.offset, state.offset + 10);
+    }
+}
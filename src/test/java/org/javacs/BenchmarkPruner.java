@@ -1,5 +1,6 @@
 package org.javacs;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.Collections;
@@ -17,9 +18,9 @@ public class BenchmarkPruner {
 
     @State(Scope.Benchmark)
     public static class CompilerState {
+        public JavaCompilerService compiler = createCompiler();
         public SourceFileObject file = file(false);
         public SourceFileObject pruned = file(true);
-        public JavaCompilerService compiler = createCompiler();
 
         private SourceFileObject file(boolean prune) {
             var file = Paths.get("src/main/java/org/javacs/InferConfig.java").normalize();
@@ -32,7 +33,7 @@ public class BenchmarkPruner {
             }
         }
 
-        private static JavaCompilerService createCompiler() {
+        static JavaCompilerService createCompiler() {
             LOG.info("Create new compiler...");
 
             var workspaceRoot = Paths.get(".").normalize().toAbsolutePath();
@@ -42,6 +43,30 @@ public class BenchmarkPruner {
         }
     }
 
+    /** Compile a file that pulls in many other files from the source path, with and without pruning them */
+    @State(Scope.Benchmark)
+    public static class DependenciesState {
+        @Param({"true", "false"})
+        public boolean pruneDependencies;
+
+        public JavaCompilerService compiler;
+        public Path file = Paths.get("src/main/java/org/javacs/JavaLanguageServer.java").normalize().toAbsolutePath();
+
+        @Setup
+        public void setup() {
+            compiler = CompilerState.createCompiler();
+            compiler.fileManager.pruneDependencies = pruneDependencies;
+        }
+    }
+
+    @Benchmark
+    public void compileDependencies(DependenciesState state) {
+        // Pretend the file was just edited, so the compilation can't be reused
+        var contents = FileStore.contents(state.file);
+        var source = new SourceFileObject(state.file, contents, Instant.now());
+        state.compiler.compile(List.of(source)).close();
+    }
+
     @Benchmark
     public void parsePlain(CompilerState state) {
         Parser.parseJavaFileObject(state.file);
@@ -0,0 +1,56 @@
+package org.javacs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class BenchmarkStringSearch {
+
+    @State(Scope.Benchmark)
+    public static class FilesState {
+        /** Words a reference search might look for, some common and some rare */
+        static final String[] WORDS = {"CompileTask", "Path", "LOG", "FileStore", "cancel", "Trees", "ZZZ", "Rope"};
+
+        public List<Path> files;
+
+        @Setup
+        public void setup() throws IOException {
+            var root = Paths.get("src/main/java").normalize().toAbsolutePath();
+            FileStore.setWorkspaceRoots(Set.of(root));
+            try (var walk = Files.walk(root)) {
+                files = walk.filter(f -> f.toString().endsWith(".java")).collect(Collectors.toList());
+            }
+        }
+    }
+
+    /** One query per word, each of which reads every file */
+    @Benchmark
+    public void oneWordAtATime(FilesState state, Blackhole bh) {
+        for (var word : FilesState.WORDS) {
+            for (var file : state.files) {
+                bh.consume(StringSearch.containsWord(file, word));
+            }
+        }
+    }
+
+    /** One query for all the words, which reads every file once */
+    @Benchmark
+    public void allWordsAtOnce(FilesState state, Blackhole bh) {
+        var query = new StringSearch.Words(FilesState.WORDS);
+        for (var file : state.files) {
+            bh.consume(query.find(file));
+        }
+    }
+}
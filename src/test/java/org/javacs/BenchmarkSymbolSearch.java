@@ -0,0 +1,53 @@
+package org.javacs;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.javacs.index.SymbolProvider;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class BenchmarkSymbolSearch {
+
+    @State(Scope.Benchmark)
+    public static class WorkspaceState {
+        /** Queries a user might type into workspace symbol search, which together match most files in this repo */
+        static final String[] QUERIES = {"Provider", "Compile", "File", "Parse", "Find", "Test"};
+
+        /** 1 is the old behavior, which only remembered the most recent parse */
+        @Param({"1", "200"})
+        public int cacheSize;
+
+        public SymbolProvider provider;
+
+        @Setup
+        public void setup() {
+            var workspaceRoot = Paths.get("src/main/java").normalize().toAbsolutePath();
+            FileStore.setWorkspaceRoots(Set.of(workspaceRoot));
+            Parser.setCacheLimit(cacheSize, Long.MAX_VALUE);
+            var compiler = new JavaCompilerService(Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+            provider = new SymbolProvider(compiler);
+        }
+
+        @TearDown
+        public void printStats() {
+            LOG.warning("Parse cache: " + Parser.cacheStats());
+        }
+    }
+
+    @Benchmark
+    public void findSymbols(WorkspaceState state, Blackhole bh) {
+        for (var query : WorkspaceState.QUERIES) {
+            bh.consume(state.provider.findSymbols(query, Integer.MAX_VALUE));
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("main");
+}
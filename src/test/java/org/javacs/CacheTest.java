@@ -0,0 +1,119 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheTest {
+    static final Path root = LanguageServerFixture.DEFAULT_WORKSPACE_ROOT.resolve("src/org/javacs/example");
+    static final Path goto_ = root.resolve("Goto.java"), gotoOther = root.resolve("GotoOther.java");
+
+    @Before
+    public void setWorkspaceRoot() {
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+    }
+
+    @Test
+    public void countHitsAndMisses() {
+        var cache = new Cache<String, Boolean>("test", 10);
+        assertThat(cache.get(goto_, "a", () -> true), equalTo(true));
+        assertThat(cache.get(goto_, "a", CacheTest::notCalled), equalTo(true));
+        assertThat(cache.get(goto_, "a", CacheTest::notCalled), equalTo(true));
+        assertThat(cache.hits(), equalTo(2L));
+        assertThat(cache.misses(), equalTo(1L));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        var cache = new Cache<String, Boolean>("test", 2);
+        cache.get(goto_, "a", () -> true);
+        cache.get(goto_, "b", () -> true);
+        // Use a, so b is the least recently used
+        cache.get(goto_, "a", CacheTest::notCalled);
+        cache.get(goto_, "c", () -> true);
+        assertThat(cache.evictions(), equalTo(1L));
+        assertFalse(reloads(cache, goto_, "a", true));
+        assertFalse(reloads(cache, goto_, "c", true));
+        assertTrue(reloads(cache, goto_, "b", true));
+    }
+
+    private static Boolean notCalled() {
+        throw new AssertionError("should have been cached");
+    }
+
+    /** Whether get(file, k, _) has to call its loader, which returns v */
+    private static <K, V> boolean reloads(Cache<K, V> cache, Path file, K k, V v) {
+        var loads = new AtomicInteger();
+        cache.get(
+                file,
+                k,
+                () -> {
+                    loads.incrementAndGet();
+                    return v;
+                });
+        return loads.get() > 0;
+    }
+
+    @Test
+    public void getLoadsOnce() {
+        var cache = new Cache<String, Boolean>("test", 10);
+        var loads = new AtomicInteger();
+        Supplier<Boolean> loader =
+                () -> {
+                    loads.incrementAndGet();
+                    return true;
+                };
+        assertThat(cache.get(goto_, "a", loader), equalTo(true));
+        assertThat(cache.get(goto_, "a", loader), equalTo(true));
+        assertThat(loads.get(), equalTo(1));
+        Cache.invalidate(goto_);
+        assertThat(cache.get(goto_, "a", loader), equalTo(true));
+        assertThat(loads.get(), equalTo(2));
+    }
+
+    @Test
+    public void getReturnsValueThatWasEvictedRightAway() {
+        var cache = new Cache<Void, List<String>>("test", 1, (__, list) -> list.size());
+        cache.get(gotoOther, null, () -> List.of("a"));
+        // The new value is too heavy to fit with the old one, and invalidating the file while loading removes nothing
+        var value =
+                cache.get(
+                        goto_,
+                        null,
+                        () -> {
+                            Cache.invalidate(goto_);
+                            return List.of("b", "c");
+                        });
+        assertThat(value, contains("b", "c"));
+        assertTrue(reloads(cache, gotoOther, null, List.of("a")));
+    }
+
+    @Test
+    public void evictByWeight() {
+        var cache = new Cache<Void, List<String>>("test", 3, (__, list) -> list.size());
+        cache.get(goto_, null, () -> List.of("a", "b"));
+        cache.get(gotoOther, null, () -> List.of("c", "d"));
+        assertThat(cache.size(), equalTo(1));
+        assertFalse(reloads(cache, gotoOther, null, List.of("c", "d")));
+    }
+
+    @Test
+    public void invalidateFile() {
+        var cache = new Cache<String, Boolean>("test", 10);
+        cache.get(goto_, "a", () -> true);
+        cache.get(goto_, "b", () -> true);
+        cache.get(gotoOther, "a", () -> true);
+        Cache.invalidate(goto_);
+        assertThat(cache.size(), equalTo(1));
+        assertFalse(reloads(cache, gotoOther, "a", true));
+        assertTrue(reloads(cache, goto_, "a", true));
+        assertTrue(reloads(cache, goto_, "b", true));
+    }
+}
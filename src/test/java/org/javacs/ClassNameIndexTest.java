@@ -0,0 +1,66 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.junit.Test;
+
+public class ClassNameIndexTest {
+    private final ClassNameIndex library =
+            ClassNameIndex.of(
+                    List.of(
+                            "java.util.ArrayList",
+                            "java.util.AbstractList",
+                            "java.util.List",
+                            "java.util.concurrent.ArrayBlockingQueue",
+                            "java.awt.List",
+                            "java.lang.String"));
+    private final ClassNameIndex workspace = ClassNameIndex.of(List.of("org.example.ArrayList", "Main"));
+    private final ClassNameIndex all = ClassNameIndex.union(workspace, library);
+
+    @Test
+    public void simplePrefix() {
+        assertThat(
+                all.withSimplePrefix("Arr", 10),
+                contains("java.util.concurrent.ArrayBlockingQueue", "java.util.ArrayList", "org.example.ArrayList"));
+        assertThat(all.withSimplePrefix("Arr", 2), hasSize(2));
+        assertThat("prefix is case-sensitive", all.withSimplePrefix("arr", 10), empty());
+        assertThat(all.withSimplePrefix("", 100), hasSize(8));
+    }
+
+    @Test
+    public void exactSimpleName() {
+        assertThat(all.withSimpleName("List"), contains("java.awt.List", "java.util.List"));
+        assertThat(all.withSimpleName("Lis"), empty());
+    }
+
+    @Test
+    public void camelHumps() {
+        assertThat(all.matchingCamelHumps("AL", 10), contains("java.util.AbstractList", "java.util.ArrayList", "org.example.ArrayList"));
+        assertThat(all.matchingCamelHumps("ArL", 10), contains("java.util.ArrayList", "org.example.ArrayList"));
+        assertThat(all.matchingCamelHumps("ABQ", 10), contains("java.util.concurrent.ArrayBlockingQueue"));
+        assertThat("humps must be prefixes of humps", all.matchingCamelHumps("AsL", 10), empty());
+        assertThat("one hump is a prefix", all.matchingCamelHumps("Array", 10), empty());
+    }
+
+    @Test
+    public void importSegments() {
+        assertThat(all.nextSegments("java.u", 10), contains("java.util"));
+        assertThat(
+                all.nextSegments("java.util.", 10),
+                contains("java.util.AbstractList", "java.util.ArrayList", "java.util.List", "java.util.concurrent"));
+        assertThat(all.nextSegments("java.", 10), contains("java.awt", "java.lang", "java.util"));
+        assertThat(all.nextSegments("", 10), contains("Main", "java", "org"));
+        assertThat(all.nextSegments("java.", 2), hasSize(2));
+    }
+
+    @Test
+    public void duplicatesAreReturnedOnce() {
+        var twice = ClassNameIndex.union(library, library);
+        assertThat(twice.withSimpleName("ArrayList"), contains("java.util.ArrayList"));
+        assertThat(twice.nextSegments("java.util.A", 10), contains("java.util.AbstractList", "java.util.ArrayList"));
+        assertTrue(twice.contains("java.lang.String"));
+        assertFalse(twice.contains("java.lang"));
+    }
+}
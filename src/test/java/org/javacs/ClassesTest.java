@@ -3,10 +3,16 @@ package org.javacs;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.IOException;
 import java.net.URI;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.Collections;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
 import org.javacs.guava.ClassPath;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -28,6 +34,42 @@ public class ClassesTest {
         assertThat(jdk, hasItem("java.util.ArrayList"));
     }
 
+    @Test
+    public void cacheScannedJars() throws IOException {
+        var originalCacheFile = ScanClassPath.cacheFile;
+        var dir = Files.createTempDirectory("classes-test");
+        try {
+            ScanClassPath.cacheFile = dir.resolve("classes.idx");
+            ScanClassPath.forget();
+            var jar = dir.resolve("example.jar");
+            writeJar(jar, "example/Foo.class");
+            assertThat(ScanClassPath.classPathTopLevelClasses(Set.of(jar)), contains("example.Foo"));
+            assertTrue(Files.exists(ScanClassPath.cacheFile));
+
+            // After a restart, the jar is read from the cache, even if it's no longer readable as a jar
+            var modified = Files.getLastModifiedTime(jar);
+            Files.write(jar, new byte[(int) Files.size(jar)]);
+            Files.setLastModifiedTime(jar, modified);
+            ScanClassPath.forget();
+            assertThat(ScanClassPath.classPathTopLevelClasses(Set.of(jar)), contains("example.Foo"));
+
+            // When the jar changes, it's scanned again
+            writeJar(jar, "example/Bar.class");
+            Files.setLastModifiedTime(jar, FileTime.fromMillis(modified.toMillis() + 1000));
+            assertThat(ScanClassPath.classPathTopLevelClasses(Set.of(jar)), contains("example.Bar"));
+        } finally {
+            ScanClassPath.cacheFile = originalCacheFile;
+            ScanClassPath.forget();
+        }
+    }
+
+    private static void writeJar(Path jar, String entry) throws IOException {
+        try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry(entry));
+            out.closeEntry();
+        }
+    }
+
     @Test
     @Ignore
     public void platformClassPath() throws Exception {
@@ -68,6 +68,13 @@ public class CompletionsTest extends CompletionsBase {
         assertThat(suggestions, not(hasItem("<init>")));
     }
 
+    @Test
+    public void expectedTypeFirst() {
+        var file = "/org/javacs/example/CompleteExpectedType.java";
+        assertThat(label(file, 5, 28), contains("completeName", "completeCount"));
+        assertThat(label(file, 9, 24), contains("completeName", "completeCount"));
+    }
+
     @Test
     public void imports() {
         var file = "/org/javacs/example/CompleteImports.java";
@@ -479,6 +486,27 @@ public class CompletionsTest extends CompletionsBase {
         assertThat("Has class from classpath", suggestions, hasItems("util"));
     }
 
+    @Test
+    public void truncatedImportsAreIncomplete() {
+        // java.util has many more than MAX_COMPLETION_ITEMS + 1 classes and packages
+        var uri = FindResource.uri("/org/javacs/example/CompleteImports.java");
+        var position = new TextDocumentPositionParams(new TextDocumentIdentifier(uri), new Position(2, 17));
+        var list = server.completion(position).get();
+        assertTrue(list.isIncomplete);
+        // The file has no class yet, so the class snippet is offered too
+        var segments = list.items.stream().filter(i -> i.kind != CompletionItemKind.Snippet).count();
+        assertThat(segments, equalTo((long) CompletionProvider.MAX_COMPLETION_ITEMS));
+    }
+
+    @Test
+    public void importsStayUnrankedWhenCompletedAgain() {
+        var file = "/org/javacs/example/CompleteImports.java";
+        var first = items(file, 3, 18).stream().map(i -> i.sortText).collect(Collectors.toList());
+        var second = items(file, 3, 18).stream().map(i -> i.sortText).collect(Collectors.toList());
+        assertThat(first, not(empty()));
+        assertThat(second, equalTo(first));
+    }
+
     // TODO top level of import
     @Ignore
     @Test
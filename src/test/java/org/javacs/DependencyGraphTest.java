@@ -0,0 +1,99 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.javacs.lsp.DidCloseTextDocumentParams;
+import org.javacs.lsp.DidOpenTextDocumentParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DependencyGraphTest {
+    static {
+        Main.setRootFormat();
+    }
+
+    private final Path src = LanguageServerFixture.DEFAULT_WORKSPACE_ROOT.resolve("src/org/javacs/example").toAbsolutePath();
+    private final Path target = src.resolve("Target.java");
+    private final Path dependsOnTarget = src.resolve("DependsOnTarget.java");
+    private final Path helloWorld = src.resolve("HelloWorld.java");
+    private final Path otherPackage = src.resolve("../other/OtherPackagePublic.java").normalize();
+    private final JavaCompilerService compiler =
+            new JavaCompilerService(Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+
+    @Before
+    public void setWorkspaceRoot() {
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+        DependencyGraph.clear();
+    }
+
+    @After
+    public void closeTarget() {
+        var close = new DidCloseTextDocumentParams();
+        close.textDocument.uri = target.toUri();
+        FileStore.close(close);
+        DependencyGraph.clear();
+    }
+
+    private Set<Path> update(Path... files) {
+        try (var task = compiler.compileOnce(List.of(files))) {
+            return DependencyGraph.update(task);
+        }
+    }
+
+    private void edit(String text) {
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = target.toUri();
+        open.textDocument.text = text;
+        FileStore.open(open);
+    }
+
+    @Test
+    public void packageMembersCanSeeEachOther() {
+        var canSee = DependencyGraph.canSee("org.javacs.example.Target");
+        assertThat(canSee, hasItems(dependsOnTarget, helloWorld));
+        assertThat(canSee, not(hasItem(otherPackage)));
+    }
+
+    @Test
+    public void compiledFilesOnlySeeWhatTheyUse() {
+        assertThat(update(target, dependsOnTarget, helloWorld), empty());
+        var canSee = DependencyGraph.canSee("org.javacs.example.Target");
+        assertThat(canSee, hasItem(dependsOnTarget));
+        assertThat(canSee, not(hasItem(helloWorld)));
+        assertThat(DependencyGraph.dependents(target), hasItem(dependsOnTarget));
+        assertThat(DependencyGraph.dependents(target), not(hasItem(helloWorld)));
+    }
+
+    @Test
+    public void subclassesUseTheWholeHierarchy() {
+        var top = src.resolve("InheritTop.java");
+        var middle = src.resolve("InheritMiddle.java");
+        var bottom = src.resolve("InheritBottom.java");
+        update(top, middle, bottom);
+        assertThat(DependencyGraph.dependents(top), hasItems(middle, bottom));
+    }
+
+    @Test
+    public void onlySignatureChangesCount() {
+        update(target, dependsOnTarget);
+        edit("package org.javacs.example;\n\nclass Target {\n    static String name() { return \"changed\"; }\n}");
+        assertThat("method body changed", update(target), empty());
+        edit("package org.javacs.example;\n\nclass Target {\n    static int name() { return 1; }\n}");
+        assertThat("return type changed", update(target), contains(target));
+    }
+
+    @Test
+    public void findPackagePrivateClassesInOtherFiles() {
+        var reference = src.resolve("ReferenceGotoPackagePrivate.java");
+        assertThat(
+                DependencyGraph.additionalSources(List.of(reference)),
+                contains(src.resolve("ContainsGotoPackagePrivate.java")));
+        assertThat(DependencyGraph.additionalSources(List.of(helloWorld)), empty());
+    }
+}
@@ -0,0 +1,157 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DocIndexTest {
+    private static final String LIBRARY =
+            "package com.example;\n"
+                    + "/** A library class. */\n"
+                    + "public class Library<T extends CharSequence> {\n"
+                    + "    /** The size. */\n"
+                    + "    public int size;\n"
+                    + "    /** Add all items. */\n"
+                    + "    public <K> void addAll(java.util.List<? extends T> items, K key, String... rest)\n"
+                    + "            throws java.io.IOException {}\n"
+                    + "    public void undocumented() {}\n"
+                    + "    /** An inner class. */\n"
+                    + "    public static class Inner {\n"
+                    + "        /** Run it. */\n"
+                    + "        public void run(int[] times) {}\n"
+                    + "    }\n"
+                    + "}\n";
+
+    private static final String OTHER = "package com.example;\n/** Another class. */\npublic class Other {}\n";
+
+    private Path dir, jar, otherJar;
+    private final AtomicInteger parses = new AtomicInteger();
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("docs");
+        jar = Files.createTempFile("library", "-sources.jar");
+        otherJar = Files.createTempFile("other", "-sources.jar");
+    }
+
+    private Optional<JavaFileObject> find(String className) {
+        switch (className) {
+            case "com.example.Library":
+                return Optional.of(source(jar, "/com/example/Library.java", LIBRARY));
+            case "com.example.Other":
+                return Optional.of(source(otherJar, "/com/example/Other.java", OTHER));
+            default:
+                return Optional.empty();
+        }
+    }
+
+    /** A source file inside archive, the way the file manager finds it */
+    private JavaFileObject source(Path archive, String path, String contents) {
+        parses.incrementAndGet();
+        return new SimpleJavaFileObject(URI.create("file://" + path), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public URI toUri() {
+                return URI.create("jar:" + archive.toUri() + "!" + path);
+            }
+
+            @Override
+            public boolean isNameCompatible(String simpleName, Kind kind) {
+                return path.endsWith("/" + simpleName + kind.extension);
+            }
+
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return contents;
+            }
+        };
+    }
+
+    private DocIndex index() {
+        return new DocIndex(dir, Set.of(jar, otherJar), this::find);
+    }
+
+    @Test
+    public void renderMembers() {
+        var index = index();
+        assertThat(index.find("com.example.Library", null, null).get().markdown, containsString("A library class."));
+        assertThat(index.find("com.example.Library", "size", null).get().markdown, containsString("The size."));
+        String[] erased = {"java.util.List", "java.lang.Object", "java.lang.String[]"};
+        var addAll = index.find("com.example.Library", "addAll", erased).get();
+        assertThat(addAll.markdown, containsString("Add all items."));
+        assertThat(addAll.detail, containsString("void addAll(java.util.List<? extends T> items, K key, String[] rest)"));
+        assertThat(addAll.detail, containsString("throws java.io.IOException"));
+        assertThat(index.find("com.example.Library", "undocumented", new String[0]).get().markdown, equalTo(""));
+        String[] ints = {"int[]"};
+        assertThat(index.find("com.example.Library.Inner", "run", ints).get().markdown, containsString("Run it."));
+        assertThat("whole file is parsed once", parses.get(), equalTo(1));
+    }
+
+    @Test
+    public void notInLibrary() {
+        var index = index();
+        assertThat(index.find("com.example.Workspace", null, null), equalTo(Optional.empty()));
+        assertThat(index.find("com.example.Library", "missing", null), equalTo(Optional.empty()));
+    }
+
+    @Test
+    public void reuseSavedIndex() {
+        var first = index();
+        first.find("com.example.Library", null, null);
+        first.save();
+        var second = index();
+        assertThat(second.find("com.example.Library", "size", null).get().markdown, containsString("The size."));
+        assertThat("second index doesn't parse", parses.get(), equalTo(1));
+    }
+
+    @Test
+    public void changedJarIsIndexedAgain() throws IOException {
+        var first = index();
+        first.find("com.example.Library", null, null);
+        first.save();
+        Files.setLastModifiedTime(jar, FileTime.from(Instant.now().plusSeconds(60)));
+        var second = index();
+        second.find("com.example.Library", null, null);
+        assertThat(parses.get(), equalTo(2));
+    }
+
+    @Test
+    public void changedJarKeepsDocsOfOtherJars() throws IOException {
+        var first = index();
+        first.find("com.example.Library", null, null);
+        first.find("com.example.Other", null, null);
+        first.save();
+        Files.setLastModifiedTime(jar, FileTime.from(Instant.now().plusSeconds(60)));
+        var second = index();
+        assertThat(second.find("com.example.Other", null, null).get().markdown, containsString("Another class."));
+        second.find("com.example.Library", null, null);
+        assertThat("only the changed jar is parsed again", parses.get(), equalTo(3));
+    }
+
+    @Test
+    public void deleteUnusedIndexes() throws IOException {
+        var unused = dir.resolve("old-sources.jar-0123456789abcdef.idx");
+        Files.writeString(unused, "");
+        Files.setLastModifiedTime(unused, FileTime.from(Instant.now().minus(Duration.ofDays(60))));
+        var index = index();
+        index.find("com.example.Library", null, null);
+        index.save();
+        assertFalse(Files.exists(unused));
+        try (var files = Files.list(dir)) {
+            assertThat(files.count(), equalTo(1L));
+        }
+    }
+}
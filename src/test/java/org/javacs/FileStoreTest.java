@@ -1,9 +1,10 @@
 package org.javacs;
 
-import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
 import java.util.Set;
+import org.javacs.lsp.*;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -19,4 +20,52 @@ public class FileStoreTest {
         var file = FindResource.path("/org/javacs/example/Goto.java");
         assertThat(FileStore.suggestedPackageName(file), equalTo("org.javacs.example"));
     }
+
+    @Test
+    public void listPackage() {
+        var file = FindResource.path("/org/javacs/example/Goto.java");
+        assertThat(FileStore.list("org.javacs.example"), hasItem(file));
+        assertThat(FileStore.list("org.javacs.notapackage"), empty());
+    }
+
+    @Test
+    public void removeWorkspaceRoot() {
+        var file = FindResource.path("/org/javacs/example/Goto.java");
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.SIMPLE_WORKSPACE_ROOT));
+        assertThat(FileStore.list("org.javacs.example"), not(hasItem(file)));
+    }
+
+    @Test
+    public void incrementalChanges() {
+        var file = FindResource.path("/org/javacs/example/Goto.java").resolveSibling("NotOnDisk.java");
+        var open = new DidOpenTextDocumentParams();
+        open.textDocument.uri = file.toUri();
+        open.textDocument.version = 1;
+        open.textDocument.text = "class NotOnDisk {\n    void test() {\n    }\n}\n";
+        FileStore.open(open);
+        try {
+            var change = new DidChangeTextDocumentParams();
+            change.textDocument.uri = file.toUri();
+            change.textDocument.version = 2;
+            // Insert a statement, then rename the method in the same change
+            change.contentChanges.add(edit(1, 17, 1, 17, "\n        return;"));
+            change.contentChanges.add(edit(1, 9, 1, 13, "run"));
+            FileStore.change(change);
+            assertThat(
+                    FileStore.contents(file),
+                    equalTo("class NotOnDisk {\n    void run() {\n        return;\n    }\n}\n"));
+        } finally {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    private static TextDocumentContentChangeEvent edit(
+            int startLine, int startCharacter, int endLine, int endCharacter, String text) {
+        var change = new TextDocumentContentChangeEvent();
+        change.range = new Range(new Position(startLine, startCharacter), new Position(endLine, endCharacter));
+        change.text = text;
+        return change;
+    }
 }
@@ -3,6 +3,8 @@ package org.javacs;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Set;
@@ -74,6 +76,45 @@ public class InferConfigTest {
                 hasItem(hasToString(endsWith(".m2/repository/junit/junit/4.12/junit-4.12-sources.jar"))));
     }
 
+    @Test
+    public void buildHashFollowsBuildFiles() throws IOException {
+        var root = Files.createTempDirectory("infer-config-test");
+        var infer = new InferConfig(root, Set.of(), mavenHome, gradleHome);
+        Files.writeString(root.resolve("pom.xml"), "<project></project>");
+        Files.createDirectories(root.resolve("module/src"));
+        Files.writeString(root.resolve("module/pom.xml"), "<project></project>");
+        var before = infer.buildHash();
+        assertThat(infer.buildHash(), equalTo(before));
+        // Source files don't affect the class path
+        Files.writeString(root.resolve("module/src/Example.java"), "class Example {}");
+        assertThat(infer.buildHash(), equalTo(before));
+        // Build files in subdirectories do
+        Files.writeString(root.resolve("module/pom.xml"), "<project><dependencies></dependencies></project>");
+        assertThat(infer.buildHash(), not(equalTo(before)));
+        // So do the files bazel keeps dependency versions in
+        var pom = infer.buildHash();
+        Files.writeString(root.resolve("module/deps.bzl"), "VERSION = '1.0'");
+        var bzl = infer.buildHash();
+        assertThat(bzl, not(equalTo(pom)));
+        Files.writeString(root.resolve("MODULE.bazel"), "bazel_dep(name = 'rules_jvm_external', version = '6.0')");
+        assertThat(infer.buildHash(), not(equalTo(bzl)));
+        // So do the external dependencies specified by the user
+        var external = new InferConfig(root, externalDependencies, mavenHome, gradleHome);
+        assertThat(external.buildHash(), not(equalTo(infer.buildHash())));
+    }
+
+    @Test
+    public void saveCachedConfig() throws IOException {
+        var root = Files.createTempDirectory("infer-config-test");
+        var classPath = Set.of(Paths.get("/example/library.jar"));
+        var docPath = Set.of(Paths.get("/example/library-sources.jar"));
+        new CachedConfig("abc123", classPath, docPath).save(root);
+        var loaded = CachedConfig.load(root).get();
+        assertThat(loaded.buildHash, equalTo("abc123"));
+        assertThat(loaded.classPath, equalTo(classPath));
+        assertThat(loaded.docPath, equalTo(docPath));
+    }
+
     @Test
     public void parseDependencyLine() {
         String[][] testCases = {
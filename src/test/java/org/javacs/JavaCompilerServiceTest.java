@@ -23,4 +23,55 @@ public class JavaCompilerServiceTest {
     public void setWorkspaceRoot() {
         FileStore.setWorkspaceRoots(Set.of(simpleProjectSrc()));
     }
+
+    private Object taskOf(JavaCompilerService compiler, String file) {
+        try (var task = compiler.compile(simpleProjectSrc().resolve(file))) {
+            return task.task;
+        }
+    }
+
+    @Test
+    public void alternateBetweenFiles() {
+        var first = taskOf(compiler, "GotoDefinition.java");
+        var other = taskOf(compiler, "HasImport.java");
+        var again = taskOf(compiler, "GotoDefinition.java");
+        assertThat(other, not(sameInstance(first)));
+        assertThat(again, sameInstance(first));
+    }
+
+    @Test
+    public void evictOverBudget() {
+        var tiny = new JavaCompilerService(Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), 0);
+        var first = taskOf(tiny, "GotoDefinition.java");
+        taskOf(tiny, "HasImport.java");
+        var again = taskOf(tiny, "GotoDefinition.java");
+        assertThat(again, not(sameInstance(first)));
+    }
+
+    @Test
+    public void nestedCompileDoesntEvictCachedTaskInUse() {
+        var tiny = new JavaCompilerService(Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), 0);
+        var first = taskOf(tiny, "GotoDefinition.java");
+        try (var cached = tiny.compile(simpleProjectSrc().resolve("GotoDefinition.java"))) {
+            assertThat(cached.task, sameInstance(first));
+            try (var nested = tiny.compile(simpleProjectSrc().resolve("HasImport.java"))) {
+                assertThat(nested.task, not(sameInstance(first)));
+            }
+            // The outer task is still usable, and still in the pool
+            assertThat(cached.root().getSourceFile().getName(), endsWith("GotoDefinition.java"));
+        }
+        var again = taskOf(tiny, "GotoDefinition.java");
+        assertThat(again, sameInstance(first));
+    }
+
+    @Test
+    public void compileOnceDoesntEvict() {
+        var tiny = new JavaCompilerService(Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), 0);
+        var first = taskOf(tiny, "GotoDefinition.java");
+        try (var task = tiny.compileOnce(List.of(simpleProjectSrc().resolve("HasImport.java")))) {
+            assertThat(task.task, not(sameInstance(first)));
+        }
+        var again = taskOf(tiny, "GotoDefinition.java");
+        assertThat(again, sameInstance(first));
+    }
 }
@@ -0,0 +1,49 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import org.javacs.markup.RangeHelper;
+import org.junit.Test;
+
+public class LineIndexTest {
+
+    @Test
+    public void agreesWithJavac() {
+        checkAgainstJavac("package example;\n\nclass Example {\n    int x;\n}\n");
+        checkAgainstJavac("class Windows {\r\n    int x;\r\n}");
+        checkAgainstJavac("class NoTrailingNewline {}");
+        checkAgainstJavac("\n\n\nclass BlankLines {}\n\n");
+    }
+
+    private void checkAgainstJavac(String text) {
+        var file = new SourceFileObject(Path.of("/workspace/src/example/Example.java"), text, Instant.now());
+        var javac = Parser.parseUncached(file).root.getLineMap();
+        var index = LineIndex.of(text);
+        // javac puts the end of a file that ends with a newline on the last line, LSP puts it on a new empty line
+        for (var pos = 0; pos < text.length(); pos++) {
+            var line = javac.getLineNumber(pos);
+            assertThat("line of " + pos, index.getLineNumber(pos), equalTo(line));
+            assertThat("column of " + pos, index.getColumnNumber(pos), equalTo(javac.getColumnNumber(pos)));
+            assertThat("start of line " + line, index.getStartPosition(line), equalTo(javac.getStartPosition(line)));
+            var ours = RangeHelper.position(index, pos);
+            var theirs = RangeHelper.position(javac, pos);
+            assertThat(ours.line, equalTo(theirs.line));
+            assertThat(ours.character, equalTo(theirs.character));
+        }
+    }
+
+    @Test
+    public void convertBothWays() {
+        var index = LineIndex.of("ab\ncde\n\nf");
+        assertThat(index.lineCount(), equalTo(4));
+        assertThat(index.getPosition(2, 3), equalTo(5L));
+        assertThat(index.getLineNumber(5), equalTo(2L));
+        assertThat(index.getColumnNumber(5), equalTo(3L));
+        assertThat(index.getPosition(3, 1), equalTo(7L));
+        assertThat(index.getLineNumber(7), equalTo(3L));
+        assertThat(index.getLineNumber(9), equalTo(4L));
+    }
+}
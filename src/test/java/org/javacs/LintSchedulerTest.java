@@ -0,0 +1,186 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.javacs.lsp.CancelToken;
+import org.javacs.lsp.DidCloseTextDocumentParams;
+import org.javacs.lsp.DidOpenTextDocumentParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LintSchedulerTest {
+    private final Path editing = Path.of("/workspace/src/example/Editing.java");
+    private final Path other = Path.of("/workspace/src/example/Other.java");
+    private final LinkedBlockingQueue<List<Path>> linted = new LinkedBlockingQueue<>();
+
+    @Before
+    public void openDocuments() {
+        for (var file : List.of(editing, other)) {
+            var open = new DidOpenTextDocumentParams();
+            open.textDocument.uri = file.toUri();
+            open.textDocument.text = "class Example {}";
+            FileStore.open(open);
+        }
+    }
+
+    @After
+    public void closeDocuments() {
+        for (var file : List.of(editing, other)) {
+            var close = new DidCloseTextDocumentParams();
+            close.textDocument.uri = file.toUri();
+            FileStore.close(close);
+        }
+    }
+
+    @Test
+    public void coalesceEdits() throws InterruptedException {
+        var lints = new LintScheduler(Duration.ofMillis(100), linted::add);
+        for (var i = 0; i < 10; i++) {
+            lints.schedule(editing, LintScheduler.EDITING);
+            Thread.sleep(10);
+        }
+        assertThat(linted.poll(10, TimeUnit.SECONDS), contains(editing));
+        assertThat(linted.poll(300, TimeUnit.MILLISECONDS), nullValue());
+        awaitCount(lints, editing, 1);
+        // The latency is measured from the first edit, so it includes the whole burst
+        assertThat(lints.metrics(editing).maxLatency(), greaterThanOrEqualTo(Duration.ofMillis(190)));
+    }
+
+    @Test
+    public void editingGoesFirst() throws InterruptedException {
+        var lints = new LintScheduler(Duration.ofMillis(100), linted::add);
+        lints.schedule(other, LintScheduler.OTHER);
+        lints.schedule(editing, LintScheduler.EDITING);
+        assertThat(linted.poll(10, TimeUnit.SECONDS), contains(editing));
+        assertThat(linted.poll(10, TimeUnit.SECONDS), contains(other));
+    }
+
+    @Test
+    public void retryAfterYieldingToRequest() throws InterruptedException {
+        var started = new CountDownLatch(1);
+        var lints =
+                new LintScheduler(
+                        Duration.ofMillis(10),
+                        files -> {
+                            if (started.getCount() > 0) {
+                                started.countDown();
+                                // Pretend to be a long compilation, which checks for cancellation as it goes
+                                while (true) {
+                                    CancelToken.current().check();
+                                    Thread.onSpinWait();
+                                }
+                            }
+                            linted.add(files);
+                        });
+        lints.schedule(editing, LintScheduler.EDITING);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        lints.yieldToRequest();
+        assertThat(linted.poll(10, TimeUnit.SECONDS), contains(editing));
+        awaitCount(lints, editing, 1);
+    }
+
+    @Test
+    public void dontRetryFailedLint() throws InterruptedException {
+        var lints =
+                new LintScheduler(
+                        Duration.ofMillis(10),
+                        files -> {
+                            linted.add(files);
+                            throw new RuntimeException("broken");
+                        });
+        lints.schedule(editing, LintScheduler.EDITING);
+        assertThat(linted.poll(10, TimeUnit.SECONDS), contains(editing));
+        assertThat(linted.poll(300, TimeUnit.MILLISECONDS), nullValue());
+    }
+
+    @Test
+    public void lintDoesntYieldToItself() throws InterruptedException {
+        var self = new AtomicReference<LintScheduler>();
+        var lints =
+                new LintScheduler(
+                        Duration.ofMillis(10),
+                        files -> {
+                            self.get().yieldToRequest();
+                            CancelToken.current().check();
+                            linted.add(files);
+                        });
+        self.set(lints);
+        lints.schedule(editing, LintScheduler.EDITING);
+        assertThat(linted.poll(10, TimeUnit.SECONDS), contains(editing));
+        awaitCount(lints, editing, 1);
+    }
+
+    @Test
+    public void awaitIdle() throws InterruptedException {
+        var lints = new LintScheduler(Duration.ofMillis(50), linted::add);
+        lints.schedule(editing, LintScheduler.EDITING);
+        lints.schedule(other, LintScheduler.OTHER);
+        lints.awaitIdle();
+        assertThat(linted, hasSize(2));
+    }
+
+    @Test
+    public void dontLintClosedDocuments() throws InterruptedException {
+        var lints = new LintScheduler(Duration.ofMillis(10), linted::add);
+        lints.schedule(editing, LintScheduler.EDITING);
+        lints.forget(editing);
+        assertThat(linted.poll(300, TimeUnit.MILLISECONDS), nullValue());
+    }
+
+    @Test
+    public void forgetDropsMetrics() throws InterruptedException {
+        var lints = new LintScheduler(Duration.ofMillis(10), linted::add);
+        lints.schedule(editing, LintScheduler.EDITING);
+        awaitCount(lints, editing, 1);
+        lints.forget(editing);
+        assertThat(lints.metrics(editing).count, equalTo(0L));
+    }
+
+    @Test
+    public void restBetweenWorkspaceBatches() throws InterruptedException {
+        var checked = new LinkedBlockingQueue<Long>();
+        var lints =
+                new LintScheduler(
+                        Duration.ofMillis(10),
+                        linted::add,
+                        files -> {
+                            try {
+                                Thread.sleep(50);
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                            checked.add(System.nanoTime());
+                        });
+        lints.setWorkspaceBudget(0.25);
+        lints.schedule(editing, LintScheduler.WORKSPACE);
+        var first = checked.poll(10, TimeUnit.SECONDS);
+        assertThat(first, notNullValue());
+        lints.schedule(other, LintScheduler.WORKSPACE);
+        lints.schedule(editing, LintScheduler.EDITING);
+        // Linting the document the user is editing doesn't wait for the rest to finish
+        assertThat(linted.poll(10, TimeUnit.SECONDS), contains(editing));
+        assertThat(checked, empty());
+        // Each check takes 50 ms, so with a budget of 1/4 the scheduler rests for 150 ms after it
+        var second = checked.poll(10, TimeUnit.SECONDS);
+        assertThat(second, notNullValue());
+        assertThat(Duration.ofNanos(second - first), greaterThanOrEqualTo(Duration.ofMillis(190)));
+    }
+
+    /** Metrics are recorded just after lint(_) returns, so the test may see the lint before its metrics */
+    private void awaitCount(LintScheduler lints, Path file, long count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (lints.metrics(file).count < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(lints.metrics(file).count, equalTo(count));
+    }
+}
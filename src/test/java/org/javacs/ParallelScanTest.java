@@ -0,0 +1,97 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.javacs.lsp.CancelToken;
+import org.junit.Test;
+
+public class ParallelScanTest {
+    private List<Path> files(int n) {
+        var files = new ArrayList<Path>();
+        for (var i = 0; i < n; i++) {
+            files.add(Paths.get("/dir/File" + i + ".java"));
+        }
+        return files;
+    }
+
+    @Test
+    public void keepOrder() {
+        var files = files(1000);
+        var names = ParallelScan.map(files, f -> f.getFileName().toString());
+        assertThat(names, hasSize(1000));
+        for (var i = 0; i < 1000; i++) {
+            assertThat(names.get(i), equalTo("File" + i + ".java"));
+        }
+        var even = ParallelScan.filter(files, f -> files.indexOf(f) % 2 == 0);
+        assertThat(even, hasSize(500));
+        assertThat(even.get(1), equalTo(files.get(2)));
+    }
+
+    @Test
+    public void stopEarly() {
+        var files = files(10_000);
+        var processed = new AtomicInteger();
+        var consumed = new ArrayList<Path>();
+        ParallelScan.scan(
+                files,
+                f -> {
+                    processed.incrementAndGet();
+                    return f;
+                },
+                f -> {
+                    consumed.add(f);
+                    return consumed.size() < 3;
+                });
+        assertThat(consumed, contains(files.get(0), files.get(1), files.get(2)));
+        assertThat(processed.get(), lessThan(files.size()));
+    }
+
+    @Test
+    public void workersSeeCancelToken() {
+        var token = new CancelToken();
+        var seen = new ArrayList<CancelToken>();
+        CancelToken.run(
+                token,
+                () -> {
+                    var tokens = ParallelScan.map(files(100), f -> CancelToken.current());
+                    seen.addAll(tokens);
+                });
+        assertThat(seen, everyItem(sameInstance(token)));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelStopsWorkers() {
+        var token = new CancelToken();
+        CancelToken.run(
+                token,
+                () ->
+                        ParallelScan.map(
+                                files(10_000),
+                                f -> {
+                                    token.cancel();
+                                    return f;
+                                }));
+    }
+
+    @Test
+    public void rethrowErrors() {
+        try {
+            ParallelScan.map(
+                    files(100),
+                    f -> {
+                        if (f.endsWith("File50.java")) throw new IllegalStateException("bad file");
+                        return f;
+                    });
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("bad file"));
+        }
+    }
+}
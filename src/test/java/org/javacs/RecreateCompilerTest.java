@@ -0,0 +1,59 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.javacs.lsp.*;
+import org.junit.Test;
+
+public class RecreateCompilerTest {
+    private final List<String> notifications = new CopyOnWriteArrayList<>();
+
+    private final JavaLanguageServer server =
+            LanguageServerFixture.getJavaLanguageServer(
+                    LanguageServerFixture.SIMPLE_WORKSPACE_ROOT,
+                    new LanguageClient() {
+                        @Override
+                        public void publishDiagnostics(PublishDiagnosticsParams params) {}
+
+                        @Override
+                        public void showMessage(ShowMessageParams params) {}
+
+                        @Override
+                        public void registerCapability(String method, JsonElement options) {}
+
+                        @Override
+                        public void customNotification(String method, JsonElement params) {
+                            notifications.add(method);
+                        }
+                    });
+
+    @Test
+    public void keepUsingOldCompilerUntilReplacementIsReady() throws InterruptedException {
+        var first = server.compiler();
+        notifications.clear();
+
+        var java = new JsonObject();
+        java.addProperty("compilerMemoryBudget", 512);
+        var settings = new JsonObject();
+        settings.add("java", java);
+        var change = new DidChangeConfigurationParams();
+        change.settings = settings;
+        server.didChangeConfiguration(change);
+
+        // The replacement is created in the background, so the request that notices the change doesn't wait for it
+        assertThat(server.compiler(), sameInstance(first));
+        var deadline = Instant.now().plus(Duration.ofMinutes(1));
+        while (server.compiler() == first && Instant.now().isBefore(deadline)) {
+            Thread.sleep(10);
+        }
+        assertThat(server.compiler(), not(sameInstance(first)));
+        assertThat(notifications, hasItems("java/startProgress", "java/reportProgress", "java/endProgress"));
+    }
+}
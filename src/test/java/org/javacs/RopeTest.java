@@ -0,0 +1,99 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+public class RopeTest {
+
+    @Test
+    public void roundTrip() {
+        var text = longText(5_000);
+        assertThat(Rope.of(text).toString(), equalTo(text));
+        assertThat(Rope.of("").toString(), equalTo(""));
+    }
+
+    @Test
+    public void offsets() {
+        var rope = Rope.of("ab\ncde\n\nf");
+        assertThat(rope.lineCount(), equalTo(4));
+        assertThat(rope.offset(0, 1), equalTo(1));
+        assertThat(rope.offset(1, 0), equalTo(3));
+        assertThat(rope.offset(1, 2), equalTo(5));
+        assertThat(rope.offset(2, 0), equalTo(7));
+        assertThat(rope.offset(3, 0), equalTo(8));
+        // Positions past the end of a line are clamped to the end of that line
+        assertThat(rope.offset(1, 100), equalTo(6));
+        assertThat(rope.offset(10, 0), equalTo(9));
+    }
+
+    @Test
+    public void offsetsAcrossChunks() {
+        var text = longText(5_000);
+        var rope = Rope.of(text);
+        var line = 0;
+        var lineStart = 0;
+        for (var i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == '\n') {
+                assertThat(rope.offset(line, 0), equalTo(lineStart));
+                assertThat(rope.offset(line, i - lineStart), equalTo(i));
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        assertThat(rope.lineCount(), equalTo(line));
+    }
+
+    @Test
+    public void randomEdits() {
+        var random = new Random(0);
+        var expected = new StringBuilder(longText(2_000));
+        var rope = Rope.of(expected.toString());
+        for (var i = 0; i < 5_000; i++) {
+            var start = random.nextInt(expected.length() + 1);
+            var end = Math.min(expected.length(), start + random.nextInt(20));
+            var insert = random.nextInt(10) == 0 ? "\n    foo();\n" : Character.toString('a' + random.nextInt(26));
+            expected.replace(start, end, insert);
+            rope = rope.replace(start, end, insert);
+            assertThat(rope.length(), equalTo(expected.length()));
+        }
+        assertThat(rope.toString(), equalTo(expected.toString()));
+        var index = random.nextInt(expected.length());
+        assertThat(rope.charAt(index), equalTo(expected.charAt(index)));
+        assertThat(rope.subSequence(100, 200), equalTo(expected.subSequence(100, 200)));
+    }
+
+    @Test
+    public void editsDontChangeOriginal() {
+        var original = Rope.of("class Foo {}");
+        var edited = original.replace(6, 9, "Bar");
+        assertThat(original.toString(), equalTo("class Foo {}"));
+        assertThat(edited.toString(), equalTo("class Bar {}"));
+    }
+
+    @Test
+    public void reader() throws IOException {
+        var text = longText(1_000);
+        var rope = Rope.of(text).replace(10, 20, "x");
+        var expected = text.substring(0, 10) + "x" + text.substring(20);
+        var read = new StringBuilder();
+        try (var reader = rope.reader()) {
+            var buffer = new char[777];
+            for (var n = reader.read(buffer); n != -1; n = reader.read(buffer)) {
+                read.append(buffer, 0, n);
+            }
+        }
+        assertThat(read.toString(), equalTo(expected));
+    }
+
+    private static String longText(int lines) {
+        var text = new StringBuilder("package example;\n\nclass Example {\n");
+        for (var i = 0; i < lines; i++) {
+            text.append("    int field").append(i).append(" = ").append(i).append(";\n");
+        }
+        return text.append("}").toString();
+    }
+}
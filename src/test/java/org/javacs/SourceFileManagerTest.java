@@ -84,5 +84,44 @@ public class SourceFileManagerTest {
         assertTrue(header.isPublic);
     }
 
+    @Test
+    public void pruneDependencies() throws IOException {
+        var pruning = new SourceFileManager(true);
+        var file =
+                pruning.getJavaFileForInput(
+                        StandardLocation.SOURCE_PATH, "org.javacs.example.GotoOther", JavaFileObject.Kind.SOURCE);
+        var contents = file.getCharContent(true).toString();
+        assertThat(contents, containsString("public static String methodStatic()"));
+        assertThat(contents, not(containsString("return \"foo\";")));
+        // Positions are preserved, so javac reports the right locations in the original file
+        var original = FileStore.contents(Path.of(file.toUri()));
+        assertThat(contents.length(), equalTo(original.length()));
+    }
+
+    @Test
+    public void dontPruneRoots() throws IOException {
+        var pruning = new SourceFileManager(true);
+        var path = src.resolve("org/javacs/example/GotoOther.java").toAbsolutePath();
+        pruning.setRoots(List.of(new SourceFileObject(path)));
+        var file =
+                pruning.getJavaFileForInput(
+                        StandardLocation.SOURCE_PATH, "org.javacs.example.GotoOther", JavaFileObject.Kind.SOURCE);
+        assertThat(file.getCharContent(true).toString(), containsString("return \"foo\";"));
+    }
+
+    @Test
+    public void prunedFilesEqualEachOther() throws IOException {
+        var pruning = new SourceFileManager(true);
+        var first =
+                pruning.getJavaFileForInput(
+                        StandardLocation.SOURCE_PATH, "org.javacs.example.GotoOther", JavaFileObject.Kind.SOURCE);
+        var second =
+                pruning.getJavaFileForInput(
+                        StandardLocation.SOURCE_PATH, "org.javacs.example.GotoOther", JavaFileObject.Kind.SOURCE);
+        assertThat(first, equalTo(second));
+        assertThat(first.hashCode(), equalTo(second.hashCode()));
+        assertThat(first, not(equalTo(new SourceFileObject(Path.of(first.toUri())))));
+    }
+
     private static final Logger LOG = Logger.getLogger("main");
 }
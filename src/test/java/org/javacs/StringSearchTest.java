@@ -3,6 +3,10 @@ package org.javacs;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import org.javacs.lsp.DidChangeTextDocumentParams;
 import org.javacs.lsp.DidCloseTextDocumentParams;
@@ -124,6 +128,47 @@ public class StringSearchTest {
         assertTrue(StringSearch.containsWordMatching(file, "ABetweenLines"));
     }
 
+    private long findWords(String text, String... words) {
+        var query = new StringSearch.Words(words);
+        var inChars = query.find(text);
+        var inBytes = query.find(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        assertThat("open documents are searched as chars, files as bytes", inBytes, equalTo(inChars));
+        return inChars;
+    }
+
+    @Test
+    public void findSeveralWords() {
+        assertThat(findWords("class Foo { Bar baz; }", "Foo", "Bar", "Qux"), equalTo(0b011L));
+        assertThat(findWords("class Foo { Bar baz; }", "Qux", "baz"), equalTo(0b10L));
+        assertThat(findWords("", "Foo"), equalTo(0L));
+        assertThat(findWords("Foo", "Foo"), equalTo(1L));
+        assertThat(findWords("Ünïcödé Foo", "Ünïcödé"), equalTo(1L));
+    }
+
+    @Test
+    public void findOnlyWholeWords() {
+        assertThat(findWords("FooBar Foo1 Foo_ $Foo xFoo", "Foo"), equalTo(0L));
+        assertThat(findWords("a.Foo(b)", "Foo"), equalTo(1L));
+        assertThat(findWords("Foo1 Foo2", "Foo2"), equalTo(1L));
+    }
+
+    @Test
+    public void searchFileLargerThanBuffer() throws IOException {
+        var file = Files.createTempFile("LargeFile", ".java");
+        try {
+            var text = new StringBuilder();
+            while (text.length() < 3 * 1024 * 1024) {
+                text.append("    int field").append(text.length()).append(";\n");
+            }
+            text.append("class AtTheEnd {}\n");
+            Files.writeString(file, text);
+            assertTrue(StringSearch.containsWord(file, "AtTheEnd"));
+            assertFalse(StringSearch.containsWord(file, "NotThere"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
     @Test
     public void matchesPartialName() {
         assertTrue(StringSearch.matchesPartialName("foobar", "foo"));
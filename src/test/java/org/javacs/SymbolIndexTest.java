@@ -0,0 +1,41 @@
+package org.javacs;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SymbolIndexTest {
+
+    @Before
+    public void setWorkspaceRoot() {
+        FileStore.setWorkspaceRoots(Set.of(LanguageServerFixture.DEFAULT_WORKSPACE_ROOT));
+    }
+
+    @Test
+    public void declaring() {
+        var file = FindResource.path("/org/javacs/example/AutocompleteBetweenLines.java");
+        var found = SymbolIndex.declaring(name -> name.equals("AutocompleteBetweenLines"));
+        assertThat(found, hasItem(file));
+    }
+
+    @Test
+    public void mentioning() {
+        var declares = FindResource.path("/org/javacs/example/GotoOther.java");
+        var references = FindResource.path("/org/javacs/example/Goto.java");
+        var found = SymbolIndex.mentioning("GotoOther");
+        assertThat(found, hasItems(declares, references));
+        assertThat(SymbolIndex.mentioning("notAWordInAnyFile"), empty());
+    }
+
+    @Test
+    public void savedUnderWorkspace() {
+        SymbolIndex.mentioning("GotoOther");
+        SymbolIndex.save();
+        var saved = LanguageServerFixture.DEFAULT_WORKSPACE_ROOT.resolve(".javacs/symbols.idx");
+        assertTrue(Files.exists(saved));
+    }
+}
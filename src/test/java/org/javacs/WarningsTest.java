@@ -57,6 +57,9 @@ public class WarningsTest {
 
     private static int editVersion = 1;
 
+    // These tests call lint(_) themselves, so open(_) and edit(_) wait for the server's own background lint and throw
+    // away what it reported, so it doesn't show up in the middle of the test
+
     private void open(Path file) {
         var open = new DidOpenTextDocumentParams();
         open.textDocument.uri = file.toUri();
@@ -64,6 +67,8 @@ public class WarningsTest {
         open.textDocument.version = editVersion++;
         open.textDocument.languageId = "java";
         server.didOpenTextDocument(open);
+        server.awaitLints();
+        errors.clear();
     }
 
     private void edit(Path file, String contents) {
@@ -74,6 +79,8 @@ public class WarningsTest {
         evt.text = contents;
         change.contentChanges.add(evt);
         server.didChangeTextDocument(change);
+        server.awaitLints();
+        errors.clear();
     }
 
     @Test
@@ -0,0 +1,98 @@
+package org.javacs.completion;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.javacs.CompilerProvider;
+import org.javacs.lsp.CompletionItem;
+import org.javacs.lsp.CompletionItemKind;
+import org.javacs.lsp.CompletionList;
+import org.junit.After;
+import org.junit.Test;
+
+public class CompletionCacheTest {
+    private final Path file = Paths.get("/workspace/Example.java").toAbsolutePath();
+    // The cache only compares compilers by identity
+    private final CompilerProvider compiler = null;
+
+    @After
+    public void clear() {
+        CompletionCache.clear();
+    }
+
+    private CompletionItem item(String label, int kind) {
+        var i = new CompletionItem();
+        i.label = label;
+        i.kind = kind;
+        return i;
+    }
+
+    private void complete(String before, String partial, String after, CompletionItem... items) {
+        var contents = before + partial + after;
+        var list = new CompletionList(false, List.of(items));
+        CompletionCache.put(compiler, file, contents, before.length(), before.length() + partial.length(), list);
+    }
+
+    private List<String> refine(String before, String partial, String after) {
+        var contents = before + partial + after;
+        var start = before.length();
+        var list = CompletionCache.refine(compiler, file, contents, start, start + partial.length());
+        if (list == null) return null;
+        return list.items.stream().map(i -> i.label).collect(Collectors.toList());
+    }
+
+    @Test
+    public void filterAsIdentifierGrows() {
+        complete(
+                "class Example { void test() { list.",
+                "",
+                " } }",
+                item("get", CompletionItemKind.Method),
+                item("getClass", CompletionItemKind.Method),
+                item("size", CompletionItemKind.Method));
+        assertThat(refine("class Example { void test() { list.", "g", " } }"), contains("get", "getClass"));
+        assertThat(refine("class Example { void test() { list.", "getC", " } }"), contains("getClass"));
+    }
+
+    @Test
+    public void keepItemsThatIgnoredTheIdentifier() {
+        complete(
+                "class Example { void test() { String.",
+                "v",
+                " } }",
+                item("valueOf", CompletionItemKind.Method),
+                item("class", CompletionItemKind.Keyword),
+                item("class Example", CompletionItemKind.Snippet));
+        assertThat(
+                refine("class Example { void test() { String.", "valueX", " } }"),
+                contains("class", "class Example"));
+    }
+
+    @Test
+    public void editsOutsideIdentifierInvalidate() {
+        complete("class Example { void test() { list.", "g", " } }", item("get", CompletionItemKind.Method));
+        assertThat("edit before", refine("class Example { void test() { lisp.", "ge", " } }"), nullValue());
+        assertThat("edit after", refine("class Example { void test() { list.", "ge", " }} "), nullValue());
+        assertThat("shorter identifier", refine("class Example { void test() { list.", "", " } }"), nullValue());
+        assertThat("different identifier", refine("class Example { void test() { list.", "s", " } }"), nullValue());
+        assertThat(refine("class Example { void test() { list.", "ge", " } }"), contains("get"));
+    }
+
+    @Test
+    public void incompleteListsArentCached() {
+        var list = new CompletionList(true, List.of(item("get", CompletionItemKind.Method)));
+        CompletionCache.put(compiler, file, "list.g", 5, 6, list);
+        assertThat(refine("list.", "ge", ""), nullValue());
+    }
+
+    @Test
+    public void emptyIdentifierDoesntHaveClassNames() {
+        complete("class Example { void test() { ", "", " } }", item("test", CompletionItemKind.Method));
+        assertThat(refine("class Example { void test() { ", "t", " } }"), contains("test"));
+        assertThat(refine("class Example { void test() { ", "S", " } }"), nullValue());
+    }
+}
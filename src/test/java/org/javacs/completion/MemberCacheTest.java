@@ -0,0 +1,69 @@
+package org.javacs.completion;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.util.List;
+import org.javacs.CompileTask;
+import org.javacs.CompilerProvider;
+import org.javacs.LanguageServerFixture;
+import org.javacs.SourceFileObject;
+import org.junit.Test;
+
+public class MemberCacheTest {
+    private static final CompilerProvider compiler = LanguageServerFixture.getCompilerProvider();
+
+    private SourceFileObject source(String contents) {
+        var file = LanguageServerFixture.DEFAULT_WORKSPACE_ROOT.resolve("src/org/javacs/example/CachedMembers.java");
+        return new SourceFileObject(file.toAbsolutePath(), contents, Instant.now());
+    }
+
+    private MemberCache.Table members(CompileTask task, String className) {
+        var elements = task.task.getElements();
+        return MemberCache.members(elements, elements.getTypeElement(className));
+    }
+
+    @Test
+    public void reuseLibraryTypes() {
+        MemberCache.Table arrayList, workspace;
+        var v1 = "package org.javacs.example; class CachedMembers extends java.util.ArrayList<String> { void a() {} }";
+        try (var task = compiler.compile(List.of(source(v1)))) {
+            arrayList = members(task, "java.util.ArrayList");
+            workspace = members(task, "org.javacs.example.CachedMembers");
+            assertThat(members(task, "java.util.ArrayList"), sameInstance(arrayList));
+            var all = task.task.getElements().getAllMembers(task.task.getElements().getTypeElement("java.util.ArrayList"));
+            assertThat(arrayList.members, hasSize(all.size()));
+            assertThat(workspace.named("a"), hasSize(1));
+            assertThat("inherited", workspace.named("add"), not(empty()));
+        }
+        var v2 = "package org.javacs.example; class CachedMembers extends java.util.ArrayList<String> { void b() {} }";
+        try (var task = compiler.compile(List.of(source(v2)))) {
+            var again = members(task, "org.javacs.example.CachedMembers");
+            assertThat(again, not(sameInstance(workspace)));
+            assertThat(again.named("a"), empty());
+            assertThat(again.named("b"), hasSize(1));
+            // The compiler is reused, and it never re-enters JDK classes, so their members are still the same
+            assertThat(members(task, "java.util.ArrayList"), sameInstance(arrayList));
+        }
+    }
+
+    @Test
+    public void clearForgetsTables() {
+        var contents = "package org.javacs.example; class CachedMembers {}";
+        try (var task = compiler.compile(List.of(source(contents)))) {
+            var before = members(task, "java.util.ArrayList");
+            MemberCache.clear();
+            assertThat(members(task, "java.util.ArrayList"), not(sameInstance(before)));
+        }
+    }
+
+    @Test
+    public void publicMembersOfPublicTypes() {
+        var contents = "package org.javacs.example; class CachedMembers { private int hidden; public int shown; }";
+        try (var task = compiler.compile(List.of(source(contents)))) {
+            assertTrue(members(task, "java.lang.String").isPublic);
+            assertFalse(members(task, "org.javacs.example.CachedMembers").isPublic);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.javacs.completion;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.javacs.lsp.CompletionItem;
+import org.javacs.lsp.CompletionItemKind;
+import org.javacs.lsp.CompletionList;
+import org.junit.Test;
+
+public class TopCompletionsTest {
+    private CompletionItem item(String label, int priority) {
+        var i = new CompletionItem();
+        i.label = label;
+        i.kind = CompletionItemKind.Field;
+        i.sortText = Relevance.sortText(false, priority, label);
+        return i;
+    }
+
+    private List<String> select(String contents, String partial, int k, CompletionItem... items) {
+        var list = new CompletionList(false, List.of(items));
+        var start = contents.indexOf(partial + "|");
+        var selected = TopCompletions.select(list, contents, start, partial, k);
+        return selected.items.stream().map(i -> i.label).collect(Collectors.toList());
+    }
+
+    @Test
+    public void keepBestK() {
+        var items = new ArrayList<CompletionItem>();
+        for (var i = 0; i < 100; i++) {
+            items.add(item("field" + i, Relevance.Priority.INHERITED_FIELD));
+        }
+        items.add(item("local", Relevance.Priority.LOCAL));
+        var list = new CompletionList(false, items);
+        var selected = TopCompletions.select(list, "", 0, "", 3);
+        var labels = selected.items.stream().map(i -> i.label).collect(Collectors.toList());
+        assertThat(labels, contains("local", "field0", "field1"));
+        assertTrue(selected.isIncomplete);
+    }
+
+    @Test
+    public void matchBeforeRelevance() {
+        var labels =
+                select(
+                        "get|",
+                        "get",
+                        10,
+                        item("getClass", Relevance.Priority.OBJECT_METHOD),
+                        item("get", Relevance.Priority.INHERITED_METHOD),
+                        item("class", Relevance.Priority.KEYWORD),
+                        item("getAll", Relevance.Priority.LOCAL));
+        assertThat(labels, contains("get", "getAll", "getClass", "class"));
+    }
+
+    @Test
+    public void usedNamesFirst() {
+        var contents = "total = total + count; x.to|";
+        var labels =
+                select(
+                        contents,
+                        "to",
+                        10,
+                        item("toString", Relevance.Priority.FIELD),
+                        item("total", Relevance.Priority.FIELD),
+                        item("toArray", Relevance.Priority.FIELD));
+        assertThat(labels, contains("total", "toArray", "toString"));
+    }
+
+    @Test
+    public void rankCopies() {
+        var original = item("total", Relevance.Priority.FIELD);
+        var list = new CompletionList(false, List.of(original));
+        var selected = TopCompletions.select(list, "", 0, "", 10);
+        assertThat(selected.items.get(0).sortText, equalTo("000"));
+        assertThat(Relevance.bucket(original.sortText), equalTo(100 + Relevance.Priority.FIELD));
+        assertFalse(selected.isIncomplete);
+    }
+
+    @Test
+    public void ranksSortAsStrings() {
+        var items = new ArrayList<CompletionItem>();
+        for (var i = 0; i < 1500; i++) {
+            items.add(item(String.format("field%04d", i), Relevance.Priority.FIELD));
+        }
+        var list = new CompletionList(false, items);
+        var selected = TopCompletions.select(list, "", 0, "", 2000);
+        assertThat(selected.items, hasSize(1500));
+        for (var i = 1; i < selected.items.size(); i++) {
+            var before = selected.items.get(i - 1).sortText;
+            var after = selected.items.get(i).sortText;
+            assertThat(before.compareTo(after), lessThan(0));
+        }
+    }
+}
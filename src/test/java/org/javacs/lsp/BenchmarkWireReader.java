@@ -0,0 +1,82 @@
+package org.javacs.lsp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class BenchmarkWireReader {
+
+    @State(Scope.Benchmark)
+    public static class StreamState {
+        /**
+         * typing is a session of small edits, each followed by a completion request. didOpen is a single generated file
+         * of 100,000 lines being opened.
+         */
+        @Param({"typing", "didOpen"})
+        public String stream;
+
+        public byte[] bytes;
+        public int messageCount;
+
+        @Setup
+        public void recordStream() {
+            var out = new ByteArrayOutputStream();
+            if (stream.equals("typing")) {
+                for (var i = 0; i < 1000; i++) {
+                    write(out, didChange(i));
+                    write(out, completion(i));
+                }
+            } else {
+                write(out, didOpen(100_000));
+            }
+            bytes = out.toByteArray();
+            messageCount = stream.equals("typing") ? 2000 : 1;
+        }
+
+        private static String didChange(int i) {
+            return String.format(
+                    "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"file:///workspace/src/Example.java\",\"version\":%d},\"contentChanges\":[{\"range\":{\"start\":{\"line\":10,\"character\":%d},\"end\":{\"line\":10,\"character\":%d}},\"text\":\"x\"}]}}",
+                    i, i, i);
+        }
+
+        private static String completion(int i) {
+            return String.format(
+                    "{\"jsonrpc\":\"2.0\",\"id\":%d,\"method\":\"textDocument/completion\",\"params\":{\"textDocument\":{\"uri\":\"file:///workspace/src/Example.java\"},\"position\":{\"line\":10,\"character\":%d}}}",
+                    i, i + 1);
+        }
+
+        private static String didOpen(int lines) {
+            var text = new StringBuilder();
+            text.append("package example;\\n\\nclass Generated {\\n");
+            for (var i = 0; i < lines; i++) {
+                text.append("    static final String FIELD_").append(i).append(" = \\\"välue ").append(i).append("\\\";\\n");
+            }
+            text.append("}\\n");
+            return "{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":{\"textDocument\":{\"uri\":\"file:///workspace/src/Generated.java\",\"languageId\":\"java\",\"version\":1,\"text\":\""
+                    + text
+                    + "\"}}}";
+        }
+
+        private static void write(ByteArrayOutputStream out, String message) {
+            var body = message.getBytes(StandardCharsets.UTF_8);
+            out.writeBytes(String.format("Content-Length: %d\r\n\r\n", body.length).getBytes(StandardCharsets.UTF_8));
+            out.writeBytes(body);
+        }
+    }
+
+    @Benchmark
+    public void read(StreamState state, Blackhole bh) {
+        var wire = new WireReader(new ByteArrayInputStream(state.bytes));
+        for (var i = 0; i < state.messageCount; i++) {
+            bh.consume(wire.next());
+        }
+    }
+}
@@ -6,6 +6,8 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -22,6 +24,7 @@ public class LanguageServerTest {
     LanguageServer mockServer;
     Thread main;
     CompletableFuture<Void> receivedInitialize = new CompletableFuture<>();
+    CompletableFuture<Void> startedDefinition = new CompletableFuture<>();
 
     class TestLanguageServer extends LanguageServer {
         @Override
@@ -29,6 +32,16 @@ public class LanguageServerTest {
             receivedInitialize.complete(null);
             return new InitializeResult();
         }
+
+        @Override
+        public Optional<List<Location>> gotoDefinition(TextDocumentPositionParams params) {
+            startedDefinition.complete(null);
+            // Spin until the client gives up
+            while (true) {
+                CancelToken.current().check();
+                Thread.onSpinWait();
+            }
+        }
     }
 
     static {
@@ -68,6 +81,9 @@ public class LanguageServerTest {
 
     String initializeMessage = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"initialize\",\"params\":{}}";
     String exitMessage = "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}";
+    String definitionMessage =
+            "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"textDocument/definition\",\"params\":{\"textDocument\":{\"uri\":\"file:///Test.java\"},\"position\":{\"line\":0,\"character\":0}}}";
+    String cancelMessage = "{\"jsonrpc\":\"2.0\",\"method\":\"$/cancelRequest\",\"params\":{\"id\":2}}";
 
     @Test
     public void exitMessageKillsServer()
@@ -94,4 +110,31 @@ public class LanguageServerTest {
         main.join(10_000);
         assertThat("Main thread has quit", main.isAlive(), equalTo(false));
     }
+
+    @Test
+    public void cancelRunningRequest()
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        sendToServer(initializeMessage);
+        receivedInitialize.get(10, TimeUnit.SECONDS);
+        // Start a request that never finishes on its own, then cancel it
+        sendToServer(definitionMessage);
+        startedDefinition.get(10, TimeUnit.SECONDS);
+        sendToServer(cancelMessage);
+        // Skip the response to initialize and wait for the error response to definition
+        var received = new StringBuilder();
+        var deadline = System.currentTimeMillis() + 10_000;
+        while (!received.toString().contains("\"id\":2") && System.currentTimeMillis() < deadline) {
+            if (serverToClient.available() > 0) {
+                received.append((char) serverToClient.read());
+            } else {
+                Thread.sleep(10);
+            }
+        }
+        while (serverToClient.available() > 0) {
+            received.append((char) serverToClient.read());
+        }
+        assertThat(received.toString(), containsString(Integer.toString(ErrorCodes.RequestCancelled)));
+        sendToServer(exitMessage);
+        main.join(10_000);
+    }
 }
@@ -3,7 +3,11 @@ package org.javacs.lsp;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
@@ -76,6 +80,54 @@ public class LspTest {
         assertThat(bufferToString(), equalTo(expected));
     }
 
+    @Test
+    public void writeBatch() {
+        var wire = WireWriter.current();
+        wire.hold();
+        LSP.respond(writer, 1, 2);
+        LSP.respond(writer, 10, "🔥");
+        assertThat("Nothing is sent until release", bufferToString(), equalTo(""));
+        wire.release(writer);
+        var expected =
+                "Content-Length: 35\r\n\r\n{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":2}"
+                        + "Content-Length: 41\r\n\r\n{\"jsonrpc\":\"2.0\",\"id\":10,\"result\":\"🔥\"}";
+        assertThat(bufferToString(), equalTo(expected));
+    }
+
+    static class Unserializable {}
+
+    @Test
+    public void failedMessageLeavesNothingBehind() {
+        var gson =
+                new GsonBuilder()
+                        .registerTypeAdapter(
+                                Unserializable.class,
+                                new TypeAdapter<Unserializable>() {
+                                    @Override
+                                    public void write(JsonWriter out, Unserializable value) throws IOException {
+                                        out.beginObject();
+                                        out.name("partial").value("this was never flushed");
+                                        throw new IllegalStateException("can't serialize");
+                                    }
+
+                                    @Override
+                                    public Unserializable read(JsonReader in) {
+                                        throw new UnsupportedOperationException();
+                                    }
+                                })
+                        .create();
+        var wire = WireWriter.current();
+        try {
+            wire.message(gson, "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":", new Unserializable());
+            fail("should have thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        LSP.respond(writer, 2, 3);
+        var expected = "Content-Length: 35\r\n\r\n{\"jsonrpc\":\"2.0\",\"id\":2,\"result\":3}";
+        assertThat(bufferToString(), equalTo(expected));
+    }
+
     @Test
     public void readMessage() throws IOException {
         var message = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"initialize\",\"params\":{}}";
@@ -83,7 +135,7 @@ public class LspTest {
         writer.write(header.getBytes());
         writer.write(message.getBytes());
 
-        var token = LSP.nextToken(buffer);
+        var token = new WireReader(buffer).next();
         assertThat(token, equalTo(message));
 
         var parse = LSP.parseMessage(token);
@@ -93,6 +145,65 @@ public class LspTest {
         assertThat(parse.params, equalTo(new JsonObject()));
     }
 
+    @Test
+    public void readMultibyteMessages() throws IOException {
+        var first = "{\"jsonrpc\":\"2.0\",\"method\":\"initialized\",\"params\":{\"text\":\"🔥\"}}";
+        var second = "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}";
+        for (var message : new String[] {first, second}) {
+            var bytes = message.getBytes(StandardCharsets.UTF_8);
+            writer.write(String.format("Content-Length: %d\r\n\r\n", bytes.length).getBytes());
+            writer.write(bytes);
+        }
+
+        // Use a tiny buffer so headers and bodies are split across reads
+        var wire = new WireReader(buffer, 48);
+        assertThat(wire.next(), equalTo(first));
+        assertThat(wire.next(), equalTo(second));
+    }
+
+    @Test
+    public void readEndOfStream() throws IOException {
+        writer.write("Content-Length: 10\r\n\r\n{}".getBytes());
+        writer.close();
+
+        var wire = new WireReader(buffer);
+        try {
+            wire.next();
+            fail("Expected EndOfStream");
+        } catch (LSP.EndOfStream __) {
+        }
+    }
+
+    @Test
+    public void skipBadHeader() throws IOException {
+        var message = "{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}";
+        writer.write("Content-Length: garbage\r\n\r\n".getBytes());
+        writer.write(String.format("Content-Length: %d\r\n\r\n", message.length()).getBytes());
+        writer.write(message.getBytes());
+
+        var wire = new WireReader(buffer);
+        try {
+            wire.next();
+            fail("Expected bad header");
+        } catch (LSP.EndOfStream e) {
+            fail("Bad header shouldn't close the stream");
+        } catch (RuntimeException __) {
+        }
+        assertThat(wire.next(), equalTo(message));
+    }
+
+    @Test
+    public void headerLongerThanBufferIsFatal() throws IOException {
+        writer.write(("X-Long: " + "x".repeat(100) + "\r\n\r\n{}").getBytes());
+
+        var wire = new WireReader(buffer, 48);
+        try {
+            wire.next();
+            fail("Expected EndOfStream");
+        } catch (LSP.EndOfStream __) {
+        }
+    }
+
     @Test
     public void excludeDefaults() {
         var item = new CompletionItem();
@@ -0,0 +1,103 @@
+package org.javacs.lsp;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class RequestSchedulerTest {
+    RequestScheduler scheduler = new RequestScheduler(2);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void readsRunConcurrently() throws InterruptedException {
+        var bothStarted = new CountDownLatch(2);
+        Runnable read =
+                () -> {
+                    bothStarted.countDown();
+                    try {
+                        bothStarted.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                };
+        scheduler.submit("textDocument/hover", read);
+        scheduler.submit("textDocument/hover", read);
+        assertTrue(bothStarted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void barrierWaitsForReads() {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit(
+                "textDocument/definition",
+                () -> {
+                    sleep(100);
+                    events.add("read");
+                });
+        scheduler.submit("textDocument/didChange", () -> events.add("write"));
+        assertThat(events, contains("read", "write"));
+    }
+
+    @Test
+    public void barrierOnlyWaitsForReadsOfSameDocument() throws InterruptedException {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        var release = new CountDownLatch(1);
+        scheduler.submit(
+                "textDocument/hover",
+                "file:///A.java",
+                () -> {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    events.add("read A");
+                });
+        scheduler.submit("textDocument/didChange", "file:///B.java", () -> events.add("write B"));
+        release.countDown();
+        scheduler.submit("textDocument/didChange", "file:///A.java", () -> events.add("write A"));
+        assertThat(events, contains("write B", "read A", "write A"));
+    }
+
+    @Test
+    public void barrierWaitsForWorkspaceReads() {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        scheduler.submit(
+                "textDocument/references",
+                "file:///A.java",
+                () -> {
+                    sleep(100);
+                    events.add("read A");
+                });
+        scheduler.submit("textDocument/didChange", "file:///B.java", () -> events.add("write B"));
+        assertThat(events, contains("read A", "write B"));
+    }
+
+    @Test
+    public void countsRequests() {
+        scheduler.submit("textDocument/didOpen", () -> {});
+        scheduler.submit("textDocument/didOpen", () -> {});
+        var metrics = scheduler.metrics("textDocument/didOpen");
+        assertThat(metrics.count.get(), equalTo(2L));
+        assertThat(metrics.queued.get(), equalTo(0));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}